@@ -0,0 +1,499 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmark of each stage of the tag cloud pipeline over the bundled corpora.
+ * For every corpus and stage it reports the throughput, in MB of input per
+ * second, and the number of bytes allocated per run by all threads, so that
+ * the allocation of the workers of a parallel stage is counted too. The
+ * parallel stage runs on one pool kept for the whole benchmark: the
+ * allocation of a thread is only known while it lives, so workers started
+ * and ended within a run would be missed.
+ *
+ * <p>
+ * Usage: {@code java TagcloudBenchmark [-w warmup] [-m runs] [-n N] [file...]}
+ * (defaults: 5 warm-up runs, 10 measured runs, N = 100 and the five
+ * {@code data/*.txt} novels). Run it with the working directory at the root
+ * of the project.
+ *
+ * @author Lucas Wu
+ */
+public final class TagcloudBenchmark {
+
+    /**
+     * private constructor for static class.
+     */
+    private TagcloudBenchmark() {
+    }
+
+    /**
+     * Corpora measured by default.
+     */
+    private static final String[] CORPORA = { "data/alice.txt",
+        "data/importance.txt", "data/tomsawyer.txt", "data/doriangray.txt",
+        "data/lesmiz.txt" };
+
+    /**
+     * Default number of warm-up runs per stage.
+     */
+    private static final int WARMUP = 5;
+
+    /**
+     * Default number of measured runs per stage.
+     */
+    private static final int RUNS = 10;
+
+    /**
+     * Default number of words in the tag cloud.
+     */
+    private static final int TOP = 100;
+
+    /**
+     * Bytes per megabyte.
+     */
+    private static final double MB = 1024.0 * 1024.0;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS = 1e9;
+
+    /**
+     * A corpus loaded into memory, plus the results of the earlier stages
+     * that later stages start from.
+     */
+    private static final class Corpus {
+
+        /**
+         * Path of the corpus.
+         */
+        private final Path path;
+
+        /**
+         * Raw bytes of the corpus.
+         */
+        private final byte[] bytes;
+
+        /**
+         * Decoded text of the corpus.
+         */
+        private final String text;
+
+        /**
+         * Words of the corpus, counted once.
+         */
+        private final CaseVariantTable words;
+
+        /**
+         * Tag cloud words of the corpus, selected once.
+         */
+        private final List<WordCount> top;
+
+        /**
+         * Constructor.
+         *
+         * @param path
+         *            path of the corpus
+         * @param n
+         *            number of words in the tag cloud
+         * @throws IOException
+         *             file reading error
+         */
+        Corpus(Path path, int n) throws IOException {
+            this.path = path;
+            this.bytes = Files.readAllBytes(path);
+            this.text = new String(this.bytes, StandardCharsets.UTF_8);
+            this.words = new CaseVariantTable();
+            TagcloudGenerator.countWordFromInput(
+                    new BufferedReader(new StringReader(this.text)),
+                    this.words);
+            this.top = TagcloudGenerator.sortAndResize(this.words,
+                    Math.max(1, Math.min(n, this.words.size())));
+        }
+
+    }
+
+    /**
+     * One stage of the pipeline.
+     */
+    private interface Stage {
+
+        /**
+         * Run the stage once over a corpus.
+         *
+         * @param corpus
+         *            the corpus
+         * @param n
+         *            number of words in the tag cloud
+         * @return a value derived from the result, so the work is not
+         *         optimized away
+         * @throws IOException
+         *             file reading error
+         */
+        long run(Corpus corpus, int n) throws IOException;
+
+    }
+
+    /**
+     * Tokenize with the reference readNextWordOrSep, line by line.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            unused
+     * @return number of tokens
+     * @throws IOException
+     *             never
+     */
+    private static long tokenizeLegacy(Corpus corpus, int n)
+            throws IOException {
+        long tokens = 0;
+        BufferedReader in = new BufferedReader(new StringReader(corpus.text));
+        String line = in.readLine();
+        while (line != null) {
+            int position = 0;
+            while (position < line.length()) {
+                position += TagcloudGenerator
+                        .readNextWordOrSep(line, position).length();
+                tokens++;
+            }
+            line = in.readLine();
+        }
+        return tokens;
+    }
+
+    /**
+     * Tokenize with WordTokenizer over the whole text.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            unused
+     * @return number of tokens
+     */
+    private static long tokenize(Corpus corpus, int n) {
+        char[] chars = corpus.text.toCharArray();
+        WordTokenizer tokenizer = new WordTokenizer(SeparatorSet.DEFAULT);
+        tokenizer.reset(chars, 0, chars.length);
+        long tokens = 0;
+        while (tokenizer.next()) {
+            tokens++;
+        }
+        return tokens;
+    }
+
+    /**
+     * Count words, case-sensitively, with no case merging.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            unused
+     * @return number of distinct words
+     */
+    private static long countExact(Corpus corpus, int n) {
+        ByteTokenizer tokenizer = new ByteTokenizer(SeparatorSet.DEFAULT,
+                StandardCharsets.UTF_8);
+        WordCountTable words = new WordCountTable();
+        tokenizer.reset(ByteBuffer.wrap(corpus.bytes), 0, corpus.bytes.length);
+        while (tokenizer.nextWord()) {
+            if (!StopWords.DEFAULT.contains(tokenizer.chars(), 0,
+                    tokenizer.length())) {
+                words.add(tokenizer.chars(), 0, tokenizer.length());
+            }
+        }
+        return words.size();
+    }
+
+    /**
+     * Count words, merging capitalizations as they are counted.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            unused
+     * @return number of distinct words
+     */
+    private static long countMerged(Corpus corpus, int n) {
+        ByteTokenizer tokenizer = new ByteTokenizer(SeparatorSet.DEFAULT,
+                StandardCharsets.UTF_8);
+        CaseVariantTable words = new CaseVariantTable();
+        tokenizer.reset(ByteBuffer.wrap(corpus.bytes), 0, corpus.bytes.length);
+        while (tokenizer.nextWord()) {
+            if (!StopWords.DEFAULT.contains(tokenizer.chars(), 0,
+                    tokenizer.length())) {
+                words.add(tokenizer.chars(), 0, tokenizer.length());
+            }
+        }
+        return words.size();
+    }
+
+    /**
+     * Count words with countWordFromInput.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            unused
+     * @return number of distinct words
+     * @throws IOException
+     *             never
+     */
+    private static long countReader(Corpus corpus, int n) throws IOException {
+        CaseVariantTable words = new CaseVariantTable();
+        TagcloudGenerator.countWordFromInput(
+                new BufferedReader(new StringReader(corpus.text)), words);
+        return words.size();
+    }
+
+    /**
+     * Count words with the memory-mapped countWordFromFile.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            unused
+     * @return number of distinct words
+     * @throws IOException
+     *             file reading error
+     */
+    private static long countMapped(Corpus corpus, int n) throws IOException {
+        CaseVariantTable words = new CaseVariantTable();
+        TagcloudGenerator.countWordFromFile(corpus.path,
+                StandardCharsets.UTF_8, words);
+        return words.size();
+    }
+
+    /**
+     * Count words with the parallel countWordFromFile on a pool of all
+     * processors.
+     *
+     * @param corpus
+     *            the corpus
+     * @param pool
+     *            the threads counting, left running
+     * @return number of distinct words
+     * @throws IOException
+     *             file reading error
+     */
+    private static long countParallel(Corpus corpus, ForkJoinPool pool)
+            throws IOException {
+        CaseVariantTable words = new CaseVariantTable();
+        TagcloudGenerator.countWordFromFile(corpus.path,
+                StandardCharsets.UTF_8, SeparatorSet.DEFAULT,
+                StopWords.DEFAULT, pool, words);
+        return words.size();
+    }
+
+    /**
+     * Select and sort the top N words with sortAndResize.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            number of words in the tag cloud
+     * @return number of words selected
+     */
+    private static long sort(Corpus corpus, int n) {
+        return TagcloudGenerator.sortAndResize(corpus.words,
+                Math.max(1, Math.min(n, corpus.words.size()))).size();
+    }
+
+    /**
+     * Render the tag cloud with generateTagCloud, discarding the output.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            unused
+     * @return number of words rendered
+     */
+    private static long render(Corpus corpus, int n) {
+        List<WordCount> top = new ArrayList<>(corpus.top);
+        PrintWriter out = new PrintWriter(Writer.nullWriter());
+        TagcloudGenerator.generateTagCloud(out, top, corpus.path.toString());
+        out.close();
+        return corpus.top.size();
+    }
+
+    /**
+     * Reports the number of bytes allocated so far by each live thread.
+     *
+     * @return allocated bytes by thread id, empty if the JVM cannot tell
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        Map<Long, Long> result = new HashMap<>();
+        java.lang.management.ThreadMXBean bean = ManagementFactory
+                .getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            long[] ids = bean.getAllThreadIds();
+            long[] bytes = ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    result.put(ids[i], bytes[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the number of bytes allocated by all threads since a snapshot
+     * of {@link #allocatedBytes()}. A thread that ended since is not
+     * counted, so every thread of the stage must still be alive.
+     *
+     * @param before
+     *            the snapshot
+     * @return allocated bytes
+     */
+    private static long allocatedSince(Map<Long, Long> before) {
+        long result = 0;
+        for (Map.Entry<Long, Long> entry : allocatedBytes().entrySet()) {
+            result += entry.getValue()
+                    - before.getOrDefault(entry.getKey(), 0L);
+        }
+        return result;
+    }
+
+    /**
+     * Measure one stage over one corpus and print the result.
+     *
+     * @param name
+     *            name of the stage
+     * @param stage
+     *            the stage
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            number of words in the tag cloud
+     * @param warmup
+     *            number of warm-up runs
+     * @param runs
+     *            number of measured runs
+     * @throws IOException
+     *             file reading error
+     */
+    private static void measure(String name, Stage stage, Corpus corpus,
+            int n, int warmup, int runs) throws IOException {
+        long sink = 0;
+        for (int i = 0; i < warmup; i++) {
+            sink += stage.run(corpus, n);
+        }
+        Map<Long, Long> before = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            sink += stage.run(corpus, n);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedSince(before);
+
+        double seconds = elapsed / NANOS;
+        double megabytes = corpus.bytes.length * (double) runs / MB;
+        System.out.println(String.format(Locale.ROOT,
+                "%-22s %-18s %10.3f %12.1f %14d %10d",
+                corpus.path.getFileName(), name, 1e3 * seconds / runs,
+                megabytes / seconds, allocated / runs, sink));
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments
+     * @throws IOException
+     *             file reading error
+     */
+    public static void main(String[] args) throws IOException {
+        int warmup = WARMUP;
+        int runs = RUNS;
+        int n = TOP;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-w") && i + 1 < args.length) {
+                i++;
+                warmup = Integer.parseInt(args[i]);
+            } else if (args[i].equals("-m") && i + 1 < args.length) {
+                i++;
+                runs = Integer.parseInt(args[i]);
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                i++;
+                n = Integer.parseInt(args[i]);
+            } else {
+                files.add(Paths.get(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            for (String corpus : CORPORA) {
+                files.add(Paths.get(corpus));
+            }
+        }
+
+        System.out.println(String.format(Locale.ROOT,
+                "%-22s %-18s %10s %12s %14s %10s", "corpus", "stage",
+                "ms/op", "MB/s", "alloc B/op", "check"));
+        ForkJoinPool pool = new ForkJoinPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            for (Path file : files) {
+                measureAll(new Corpus(file, n), pool, n, warmup, runs);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Measure every stage over one corpus and print the results.
+     *
+     * @param corpus
+     *            the corpus
+     * @param pool
+     *            the threads of the parallel stage
+     * @param n
+     *            number of words in the tag cloud
+     * @param warmup
+     *            number of warm-up runs
+     * @param runs
+     *            number of measured runs
+     * @throws IOException
+     *             file reading error
+     */
+    private static void measureAll(Corpus corpus, ForkJoinPool pool, int n,
+            int warmup, int runs) throws IOException {
+        measure("tokenize-legacy", TagcloudBenchmark::tokenizeLegacy, corpus,
+                n, warmup, runs);
+        measure("tokenize", TagcloudBenchmark::tokenize, corpus, n, warmup,
+                runs);
+        measure("count-exact", TagcloudBenchmark::countExact, corpus, n,
+                warmup, runs);
+        measure("count-case-merged", TagcloudBenchmark::countMerged, corpus,
+                n, warmup, runs);
+        measure("count-reader", TagcloudBenchmark::countReader, corpus, n,
+                warmup, runs);
+        measure("count-mapped", TagcloudBenchmark::countMapped, corpus, n,
+                warmup, runs);
+        measure("count-parallel", (c, k) -> countParallel(c, pool), corpus,
+                n, warmup, runs);
+        measure("sortAndResize", TagcloudBenchmark::sort, corpus, n, warmup,
+                runs);
+        measure("generateTagCloud", TagcloudBenchmark::render, corpus, n,
+                warmup, runs);
+    }
+
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes the words of a tag cloud in a compact binary format, for services
+ * that read the ranked words rather than show them.
+ *
+ * <pre>
+ * magic    4 bytes   "TCLD"
+ * version  1 byte    2
+ * name     varint length, then that many bytes of UTF-8
+ * words    varint number of words, then for each, in the order given:
+ *            varint length, that many bytes of UTF-8, varint count,
+ *            varint error (most by which the count is too high)
+ * </pre>
+ *
+ * A varint is an unsigned number in 7-bit groups, lowest first, with the
+ * high bit set on every byte but the last (as in LEB128 and Protocol
+ * Buffers), so a count under 128 takes one byte. Words are encoded straight
+ * into a buffer kept by each thread, which is written out whenever it is
+ * full; no String or byte array is made per word.
+ *
+ * @author Lucas Wu
+ */
+public final class BinaryRenderer implements CloudRenderer {
+
+    /**
+     * First bytes of the format: "TCLD".
+     */
+    static final int MAGIC = 0x54434C44;
+
+    /**
+     * Version of the format.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * Bytes of the buffer of each thread.
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Most bytes a char or a varint is encoded to.
+     */
+    private static final int MAX_BYTES = 5;
+
+    /**
+     * Bits of a varint byte holding the number.
+     */
+    private static final int VARINT_BITS = 7;
+
+    /**
+     * Low bits of a varint byte.
+     */
+    private static final int VARINT_MASK = 0x7F;
+
+    /**
+     * High bit of a varint byte: more bytes follow.
+     */
+    private static final int VARINT_MORE = 0x80;
+
+    /**
+     * Buffer of each thread.
+     */
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal
+            .withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /**
+     * Bytes written to the buffer and not yet to the stream.
+     */
+    private static final class Output {
+
+        /**
+         * The stream.
+         */
+        private final OutputStream out;
+
+        /**
+         * The buffer.
+         */
+        private final byte[] buffer = BUFFER.get();
+
+        /**
+         * Number of bytes in the buffer.
+         */
+        private int length;
+
+        /**
+         * Constructor.
+         *
+         * @param out
+         *            the stream
+         */
+        Output(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Make room for {@code n} more bytes.
+         *
+         * @param n
+         *            the number of bytes
+         * @throws IOException
+         *             if the stream cannot be written
+         * @requires n <= BUFFER_SIZE
+         */
+        void reserve(int n) throws IOException {
+            if (this.length + n > this.buffer.length) {
+                this.flush();
+            }
+        }
+
+        /**
+         * Write a byte.
+         *
+         * @param b
+         *            the byte
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void put(int b) throws IOException {
+            this.reserve(1);
+            this.buffer[this.length] = (byte) b;
+            this.length++;
+        }
+
+        /**
+         * Write a varint.
+         *
+         * @param value
+         *            the number, taken as unsigned
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void putVarint(int value) throws IOException {
+            this.reserve(MAX_BYTES);
+            int v = value;
+            while ((v & ~VARINT_MASK) != 0) {
+                this.buffer[this.length] = (byte) ((v & VARINT_MASK)
+                        | VARINT_MORE);
+                this.length++;
+                v >>>= VARINT_BITS;
+            }
+            this.buffer[this.length] = (byte) v;
+            this.length++;
+        }
+
+        /**
+         * Write a string as its length in UTF-8, then its UTF-8 bytes.
+         *
+         * @param s
+         *            the string
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void putString(CharSequence s) throws IOException {
+            this.putVarint(utf8Length(s));
+            int i = 0;
+            while (i < s.length()) {
+                this.reserve(MAX_BYTES);
+                char c = s.charAt(i);
+                int code = c;
+                if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    code = Character.toCodePoint(c, s.charAt(i + 1));
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    code = '?';
+                }
+                this.length = encode(code, this.buffer, this.length);
+                i++;
+            }
+        }
+
+        /**
+         * Write the buffer to the stream and empty it.
+         *
+         * @throws IOException
+         *             if the stream cannot be written
+         */
+        void flush() throws IOException {
+            this.out.write(this.buffer, 0, this.length);
+            this.length = 0;
+        }
+
+    }
+
+    @Override
+    public void render(List<WordCount> words, String name, OutputStream out)
+            throws IOException {
+        Output output = new Output(out);
+        for (int shift = Integer.SIZE - Byte.SIZE; shift >= 0;
+                shift -= Byte.SIZE) {
+            output.put(MAGIC >>> shift);
+        }
+        output.put(VERSION);
+        output.putString(name);
+        output.putVarint(words.size());
+        for (WordCount entry : words) {
+            output.putString(entry.getWord());
+            output.putVarint(entry.getCount());
+            output.putVarint(entry.getError());
+        }
+        output.flush();
+    }
+
+    /**
+     * Reports the number of bytes of a string in UTF-8, an unpaired
+     * surrogate counting as the one byte of '?', as {@code getBytes} writes
+     * it.
+     *
+     * @param s
+     *            the string
+     * @return its length in UTF-8
+     */
+    private static int utf8Length(CharSequence s) {
+        int result = 0;
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c < 0x80 || Character.isSurrogate(c)) {
+                result++;
+                if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    result += 3;
+                    i++;
+                }
+            } else if (c < 0x800) {
+                result += 2;
+            } else {
+                result += 3;
+            }
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * Encode a code point in UTF-8.
+     *
+     * @param code
+     *            the code point
+     * @param buffer
+     *            the buffer
+     * @param at
+     *            where to write in the buffer
+     * @return where the next byte goes
+     * @requires buffer has room for 4 bytes at {@code at}
+     */
+    private static int encode(int code, byte[] buffer, int at) {
+        int i = at;
+        if (code < 0x80) {
+            buffer[i++] = (byte) code;
+        } else if (code < 0x800) {
+            buffer[i++] = (byte) (0xC0 | (code >> 6));
+            buffer[i++] = (byte) (0x80 | (code & 0x3F));
+        } else if (code < 0x10000) {
+            buffer[i++] = (byte) (0xE0 | (code >> 12));
+            buffer[i++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+            buffer[i++] = (byte) (0x80 | (code & 0x3F));
+        } else {
+            buffer[i++] = (byte) (0xF0 | (code >> 18));
+            buffer[i++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+            buffer[i++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+            buffer[i++] = (byte) (0x80 | (code & 0x3F));
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,260 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer that finds words directly in encoded bytes, for example a
+ * memory-mapped file. Separators are skipped without being decoded; the bytes
+ * of each word are decoded into a reusable char buffer.
+ *
+ * <p>
+ * ISO-8859-1 and US-ASCII are decoded one byte per char. UTF-8 is decoded
+ * with an ASCII fast path; malformed sequences become U+FFFD. A UTF-8
+ * multi-byte sequence is only decoded to check it against the separators
+ * when the {@link SeparatorSet} has separators outside ASCII.
+ *
+ * @author Lucas Wu
+ */
+public final class ByteTokenizer {
+
+    /**
+     * Replacement char for malformed UTF-8.
+     */
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /**
+     * Smallest byte that is not ASCII (as an unsigned value).
+     */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /**
+     * Initial capacity of the word buffer.
+     */
+    private static final int INITIAL_WORD_CAPACITY = 64;
+
+    /**
+     * Characters that separate words.
+     */
+    private final SeparatorSet separators;
+
+    /**
+     * Whether a non-ASCII UTF-8 sequence may be a separator.
+     */
+    private final boolean decodeSeparators;
+
+    /**
+     * Number of bytes of the last sequence decoded.
+     */
+    private int sequenceLength;
+
+    /**
+     * Whether words are decoded as UTF-8 rather than one byte per char.
+     */
+    private final boolean utf8;
+
+    /**
+     * Bytes being scanned.
+     */
+    private ByteBuffer bytes;
+
+    /**
+     * Next position to scan.
+     */
+    private int position;
+
+    /**
+     * End (exclusive) of the region being scanned.
+     */
+    private int limit;
+
+    /**
+     * Decoded chars of the current word.
+     */
+    private char[] word;
+
+    /**
+     * Number of chars in the current word.
+     */
+    private int length;
+
+    /**
+     * Constructor.
+     *
+     * @param separators
+     *            the characters that separate words
+     * @param charset
+     *            the encoding of the bytes: UTF-8, ISO-8859-1 or US-ASCII
+     */
+    public ByteTokenizer(SeparatorSet separators, Charset charset) {
+        assert separators != null : "Violation of: separators is not null";
+        assert charset != null : "Violation of: charset is not null";
+        if (!isSupported(charset)) {
+            throw new IllegalArgumentException(
+                    "Unsupported charset: " + charset.name());
+        }
+        this.separators = separators;
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.decodeSeparators = this.utf8 && !separators.isAsciiOnly();
+        this.word = new char[INITIAL_WORD_CAPACITY];
+    }
+
+    /**
+     * Reports whether the given charset can be scanned.
+     *
+     * @param charset
+     *            the charset to check
+     * @return true if the charset is UTF-8, ISO-8859-1 or US-ASCII
+     */
+    public static boolean isSupported(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Start scanning {@code bytes[from, to)}. The buffer's own position and
+     * limit are not used or changed.
+     *
+     * @param bytes
+     *            the bytes to scan
+     * @param from
+     *            the first position to scan
+     * @param to
+     *            the end (exclusive) of the region to scan
+     * @requires 0 <= from <= to <= bytes.capacity()
+     */
+    public void reset(ByteBuffer bytes, int from, int to) {
+        assert bytes != null : "Violation of: bytes is not null";
+        assert 0 <= from && from <= to
+                && to <= bytes.capacity() : "Violation of: valid region";
+        this.bytes = bytes;
+        this.position = from;
+        this.limit = to;
+        this.length = 0;
+    }
+
+    /**
+     * Advance to the next word, skipping any separators before it.
+     *
+     * @return false if there are no more words in the region
+     */
+    public boolean nextWord() {
+        this.length = 0;
+        boolean done = false;
+        while (!done && this.position < this.limit) {
+            int b = this.bytes.get(this.position) & 0xFF;
+            int codePoint = b;
+            this.sequenceLength = 1;
+            if (b >= ASCII_LIMIT && this.utf8) {
+                codePoint = this.decode(b);
+            }
+            boolean separator;
+            if (b < ASCII_LIMIT || !this.utf8 || this.decodeSeparators) {
+                separator = this.separators.isSeparator(codePoint);
+            } else {
+                separator = false;
+            }
+            if (separator) {
+                done = this.length > 0;
+            } else {
+                this.append(codePoint);
+            }
+            this.position += this.sequenceLength;
+        }
+        return this.length > 0;
+    }
+
+    /**
+     * Reports the chars of the current word, which are valid until the next
+     * call to {@link #nextWord()}.
+     *
+     * @return the buffer holding the current word in [0, length())
+     */
+    public char[] chars() {
+        return this.word;
+    }
+
+    /**
+     * Reports the length of the current word.
+     *
+     * @return number of chars of the current word
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Reports whether the given byte is a separator on its own. A byte that
+     * is part of a UTF-8 multi-byte sequence never is, so a region may
+     * safely be cut just after such a separator.
+     *
+     * @param b
+     *            the byte to check
+     * @return true if {@code b} is a separator char
+     */
+    public boolean isSeparator(byte b) {
+        boolean result;
+        if (b >= 0) {
+            result = this.separators.isSeparator((char) b);
+        } else {
+            result = !this.utf8
+                    && this.separators.isSeparator((char) (b & 0xFF));
+        }
+        return result;
+    }
+
+    /**
+     * Decode the UTF-8 sequence starting at the current position, whose lead
+     * byte is {@code lead}, and record its length in
+     * {@link #sequenceLength}.
+     *
+     * @param lead
+     *            the unsigned lead byte, at least 0x80
+     * @return the code point, or U+FFFD if the sequence is malformed
+     */
+    private int decode(int lead) {
+        int extra;
+        int codePoint;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            this.sequenceLength = 1;
+            return REPLACEMENT;
+        }
+        int i = this.position + 1;
+        int end = this.position + 1 + extra;
+        while (i < end && i < this.limit
+                && (this.bytes.get(i) & 0xC0) == 0x80) {
+            codePoint = (codePoint << 6) | (this.bytes.get(i) & 0x3F);
+            i++;
+        }
+        this.sequenceLength = i - this.position;
+        if (i < end || !Character.isValidCodePoint(codePoint)) {
+            codePoint = REPLACEMENT;
+        }
+        return codePoint;
+    }
+
+    /**
+     * Append a code point to the current word.
+     *
+     * @param codePoint
+     *            the code point to append
+     */
+    private void append(int codePoint) {
+        if (this.length + 2 > this.word.length) {
+            char[] grown = new char[2 * this.word.length];
+            System.arraycopy(this.word, 0, grown, 0, this.length);
+            this.word = grown;
+        }
+        this.length += Character.toChars(codePoint, this.word, this.length);
+    }
+
+}
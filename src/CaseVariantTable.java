@@ -0,0 +1,299 @@
+import java.util.Arrays;
+
+/**
+ * Counting table that merges the different capitalizations of a word as it
+ * counts. Words are grouped by their lower-case form; each group keeps the
+ * count of every capitalization seen (lower, Title, ALLCAPS, mIxEd, ...) and
+ * the total count of the group.
+ *
+ * <p>
+ * The capitalization shown for a group is the one that occurs most often; if
+ * several occur equally often, the one that appears first in the text wins.
+ * It is kept up to date on every token, so no second pass over the words is
+ * needed when counting ends. Groups are indexed in the order their first
+ * capitalization appears.
+ *
+ * <p>
+ * A table made by {@link #offHeap()} keeps its words and counts outside the
+ * Java heap; {@link #free()} releases that memory when the table is no
+ * longer needed.
+ *
+ * @author Lucas Wu
+ */
+public final class CaseVariantTable implements WordCounts, WordSink {
+
+    /**
+     * Initial number of variants and groups.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Count of every capitalization, keyed by the exact word.
+     */
+    private final CountTable variants;
+
+    /**
+     * Total count of every group, keyed by the lower-case word.
+     */
+    private final CountTable groups;
+
+    /**
+     * Index in {@link #groups} of the group of each variant.
+     */
+    private int[] groupOf;
+
+    /**
+     * Index in {@link #variants} of the capitalization shown for each group.
+     */
+    private int[] shown;
+
+    /**
+     * Buffer for lower-casing a word.
+     */
+    private char[] folded;
+
+    /**
+     * Buffer for copying a word out of another table.
+     */
+    private char[] copy;
+
+    /**
+     * Constructor.
+     */
+    public CaseVariantTable() {
+        this(new WordCountTable(), new WordCountTable());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param variants
+     *            empty table for the count of every capitalization
+     * @param groups
+     *            empty table for the total count of every group
+     */
+    private CaseVariantTable(CountTable variants, CountTable groups) {
+        this.variants = variants;
+        this.groups = groups;
+        this.groupOf = new int[INITIAL_CAPACITY];
+        this.shown = new int[INITIAL_CAPACITY];
+        this.folded = new char[INITIAL_CAPACITY];
+        this.copy = new char[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Make a table that keeps its words and counts outside the Java heap.
+     *
+     * @return the table
+     */
+    public static CaseVariantTable offHeap() {
+        return new CaseVariantTable(new OffHeapCountTable(),
+                new OffHeapCountTable());
+    }
+
+    /**
+     * Release the memory the table keeps outside the Java heap, if any. The
+     * table must not be used afterwards.
+     */
+    public void free() {
+        if (this.variants instanceof OffHeapCountTable) {
+            ((OffHeapCountTable) this.variants).close();
+        }
+        if (this.groups instanceof OffHeapCountTable) {
+            ((OffHeapCountTable) this.groups).close();
+        }
+    }
+
+    /**
+     * Add one to the count of the word {@code text[start, end)}.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @requires 0 <= start < end <= |text|
+     */
+    @Override
+    public void add(char[] text, int start, int end) {
+        this.add(text, start, end, 1);
+    }
+
+    /**
+     * Add {@code amount} to the count of the word {@code text[start, end)}.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @param amount
+     *            the amount to add
+     * @requires 0 <= start < end <= |text| and amount > 0
+     */
+    public void add(char[] text, int start, int end, int amount) {
+        int known = this.variants.size();
+        int variant = this.variants.add(text, start, end, amount);
+        int group;
+        if (variant < known) {
+            group = this.groupOf[variant];
+            this.groups.increment(group, amount);
+        } else {
+            int length = this.fold(text, start, end);
+            int groupCount = this.groups.size();
+            group = this.groups.add(this.folded, 0, length, amount);
+            if (variant == this.groupOf.length) {
+                this.groupOf = Arrays.copyOf(this.groupOf, 2 * variant);
+            }
+            this.groupOf[variant] = group;
+            if (group == groupCount) {
+                if (group == this.shown.length) {
+                    this.shown = Arrays.copyOf(this.shown, 2 * group);
+                }
+                this.shown[group] = variant;
+            }
+        }
+
+        int best = this.shown[group];
+        int count = this.variants.count(variant);
+        if (count > this.variants.count(best)
+                || (count == this.variants.count(best) && variant < best)) {
+            this.shown[group] = variant;
+        }
+    }
+
+    /**
+     * Add every capitalization counted by {@code other} to this table, in
+     * the order they first appear in {@code other}. Adding the tables of
+     * consecutive parts of a text in order gives the same table as counting
+     * the whole text.
+     *
+     * @param other
+     *            the table to add
+     */
+    public void addAll(CaseVariantTable other) {
+        assert other != null : "Violation of: other is not null";
+        for (int i = 0; i < other.variants.size(); i++) {
+            int length = other.variants.wordLength(i);
+            if (length > this.copy.length) {
+                this.copy = new char[Math.max(length, 2 * this.copy.length)];
+            }
+            other.variants.getChars(i, this.copy, 0);
+            this.add(this.copy, 0, length, other.variants.count(i));
+        }
+    }
+
+    /**
+     * Reports the number of capitalizations counted.
+     *
+     * @return number of distinct exact words
+     */
+    public int variantCount() {
+        return this.variants.size();
+    }
+
+    /**
+     * Reports the capitalization at the given index, in the order the
+     * capitalizations first appear.
+     *
+     * @param variant
+     *            index of the capitalization
+     * @return the capitalization
+     * @requires 0 <= variant < variantCount()
+     */
+    String variantWord(int variant) {
+        return this.variants.word(variant);
+    }
+
+    /**
+     * Reports the count of the capitalization at the given index.
+     *
+     * @param variant
+     *            index of the capitalization
+     * @return the number of times the capitalization appears
+     * @requires 0 <= variant < variantCount()
+     */
+    int variantCount(int variant) {
+        return this.variants.count(variant);
+    }
+
+    /**
+     * Reports the group of the capitalization at the given index.
+     *
+     * @param variant
+     *            index of the capitalization
+     * @return index of its group
+     * @requires 0 <= variant < variantCount()
+     */
+    int groupOf(int variant) {
+        return this.groupOf[variant];
+    }
+
+    /**
+     * Reports the capitalization shown for the group at the given index.
+     *
+     * @param index
+     *            index of the group
+     * @return index of the capitalization shown
+     * @requires 0 <= index < size()
+     */
+    int shownVariant(int index) {
+        return this.shown[index];
+    }
+
+    /**
+     * Reports the lower-case form of the capitalization at the given index.
+     *
+     * @param variant
+     *            index of the capitalization
+     * @return the lower-case word of its group
+     * @requires 0 <= variant < variantCount()
+     */
+    String foldedWord(int variant) {
+        return this.groups.word(this.groupOf[variant]);
+    }
+
+    @Override
+    public int size() {
+        return this.groups.size();
+    }
+
+    @Override
+    public String word(int index) {
+        return this.variants.word(this.shown[index]);
+    }
+
+    @Override
+    public int count(int index) {
+        return this.groups.count(index);
+    }
+
+    /**
+     * Lower-case {@code text[start, end)} into {@link #folded}.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @return number of chars of the lower-case word
+     */
+    private int fold(char[] text, int start, int end) {
+        if (2 * (end - start) > this.folded.length) {
+            this.folded = new char[2 * (end - start)];
+        }
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            int codePoint = Character.codePointAt(text, i, end);
+            length += Character.toChars(Character.toLowerCase(codePoint),
+                    this.folded, length);
+            i += Character.charCount(codePoint);
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,127 @@
+import java.util.Locale;
+
+/**
+ * Output formats of a tag cloud, chosen by name on the command line and in
+ * requests to the {@link TagcloudServer}.
+ *
+ * @author Lucas Wu
+ */
+public enum CloudFormat {
+
+    /**
+     * HTML page, as written by {@link TagcloudGenerator#generateTagCloud}.
+     */
+    HTML("html", "text/html; charset=UTF-8", CloudRenderer.HTML),
+
+    /**
+     * JSON object with the name of the text and its words with their counts.
+     */
+    JSON("json", "application/json", CloudRenderer.JSON),
+
+    /**
+     * CSV with a {@code word,count,error} header.
+     */
+    CSV("csv", "text/csv; charset=UTF-8", CloudRenderer.CSV),
+
+    /**
+     * Compact binary, as described in {@link BinaryRenderer}.
+     */
+    BINARY("bin", "application/octet-stream", CloudRenderer.BINARY),
+
+    /**
+     * SVG image with the words laid out on a spiral, as written by
+     * {@link SvgRenderer}.
+     */
+    SVG("svg", "image/svg+xml", CloudRenderer.SVG);
+
+    /**
+     * Extension of a file in the format, without the dot.
+     */
+    private final String extension;
+
+    /**
+     * Media type of the format, in UTF-8 for text.
+     */
+    private final String contentType;
+
+    /**
+     * Renderer of the format, in UTF-8 for text.
+     */
+    private final CloudRenderer renderer;
+
+    /**
+     * Constructor.
+     *
+     * @param extension
+     *            extension of a file in the format
+     * @param contentType
+     *            media type of the format
+     * @param renderer
+     *            renderer of the format
+     */
+    CloudFormat(String extension, String contentType,
+            CloudRenderer renderer) {
+        this.extension = extension;
+        this.contentType = contentType;
+        this.renderer = renderer;
+    }
+
+    /**
+     * Reports the format with a name: html, json, csv, binary or svg, in
+     * any case.
+     *
+     * @param name
+     *            the name
+     * @return the format
+     * @throws IllegalArgumentException
+     *             if no format has that name
+     */
+    public static CloudFormat named(String name) {
+        CloudFormat result;
+        try {
+            result = valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format: " + name, e);
+        }
+        return result;
+    }
+
+    /**
+     * Reports the name of the format, as {@link #named} takes it.
+     *
+     * @return the name, in lower case
+     */
+    public String formatName() {
+        return this.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Reports the extension of a file in the format.
+     *
+     * @return the extension, without the dot
+     */
+    public String extension() {
+        return this.extension;
+    }
+
+    /**
+     * Reports the media type of the format, for the Content-Type of a
+     * response.
+     *
+     * @return the media type
+     */
+    public String contentType() {
+        return this.contentType;
+    }
+
+    /**
+     * Reports the renderer of the format. Text is in UTF-8, and HTML links
+     * to the course stylesheet.
+     *
+     * @return the renderer
+     */
+    public CloudRenderer renderer() {
+        return this.renderer;
+    }
+
+}
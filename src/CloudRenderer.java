@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes the words of a tag cloud, in alphabetical order, to a stream.
+ *
+ * <p>
+ * The words are written as they are read from the list, straight to the
+ * stream: no document or String of the whole output is built. See
+ * {@link CloudFormat} for choosing one of these by name.
+ *
+ * @author Lucas Wu
+ */
+@FunctionalInterface
+public interface CloudRenderer {
+
+    /**
+     * HTML page, as written by {@link TagcloudGenerator#generateTagCloud},
+     * in UTF-8 (see {@link HtmlRenderer}).
+     */
+    CloudRenderer HTML = new HtmlRenderer(StandardCharsets.UTF_8);
+
+    /**
+     * JSON, as written by {@link TagcloudGenerator#generateJson}, in UTF-8.
+     */
+    CloudRenderer JSON = (words, name, out) -> {
+        PrintWriter textOutput = new PrintWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        TagcloudGenerator.generateJson(textOutput, words, name);
+        textOutput.flush();
+        if (textOutput.checkError()) {
+            throw new IOException("Error writing the cloud of " + name);
+        }
+    };
+
+    /**
+     * CSV, as written by {@link TagcloudGenerator#generateCsv}, in UTF-8.
+     */
+    CloudRenderer CSV = (words, name, out) -> {
+        PrintWriter textOutput = new PrintWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        TagcloudGenerator.generateCsv(textOutput, words);
+        textOutput.flush();
+        if (textOutput.checkError()) {
+            throw new IOException("Error writing the cloud of " + name);
+        }
+    };
+
+    /**
+     * Compact binary, as written by {@link BinaryRenderer}.
+     */
+    CloudRenderer BINARY = new BinaryRenderer();
+
+    /**
+     * SVG image, as written by {@link SvgRenderer}, with seed 0.
+     */
+    CloudRenderer SVG = new SvgRenderer(new SvgLayout(0));
+
+    /**
+     * Write the words of a tag cloud. The stream is not closed, and
+     * {@code words} is not changed.
+     *
+     * @param words
+     *            the words of the cloud, in alphabetical order
+     * @param name
+     *            the name of the text the words come from
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    void render(List<WordCount> words, String name, OutputStream out)
+            throws IOException;
+
+}
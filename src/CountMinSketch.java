@@ -0,0 +1,136 @@
+/**
+ * Count-Min sketch of the word frequencies of a stream, with the candidate
+ * top words found along the way. Memory is the sketch, {@code depth} rows of
+ * {@code width} counters, plus the candidates, whatever the size of the
+ * vocabulary.
+ *
+ * <p>
+ * Each word (regardless of case) is hashed to one counter per row; its
+ * estimate is the lowest of its counters, which never underestimates its
+ * count. Counters are raised by conservative update: only the counters
+ * below the new estimate are raised, to it. After each word, the word is
+ * kept as a candidate if its estimate is among the highest seen so far.
+ *
+ * <p>
+ * The estimates are only used to choose candidates. The counts shown are
+ * exact: a second pass over the same text counts the candidates, and only
+ * them, through {@link #candidatesOf(CaseVariantTable)}, as done by
+ * {@link TagcloudGenerator#countTopWordsFromFile}.
+ *
+ * @author Lucas Wu
+ */
+public final class CountMinSketch implements WordSink {
+
+    /**
+     * Counters of all rows, row after row.
+     */
+    private final int[] table;
+
+    /**
+     * Number of counters in a row, a power of two.
+     */
+    private final int width;
+
+    /**
+     * Number of rows.
+     */
+    private final int depth;
+
+    /**
+     * The words with the highest estimates, and their estimates.
+     */
+    private final MonitoredWords candidates;
+
+    /**
+     * Number of words added.
+     */
+    private long total;
+
+    /**
+     * Constructor.
+     *
+     * @param candidates
+     *            number of candidate words kept
+     * @param width
+     *            number of counters in a row, rounded up to a power of two
+     * @param depth
+     *            number of rows
+     */
+    public CountMinSketch(int candidates, int width, int depth) {
+        assert candidates > 0 : "Violation of: candidates > 0";
+        assert 0 < width && width <= 1 << 30 : "Violation of: valid width";
+        assert depth > 0 : "Violation of: depth > 0";
+        this.width = Integer.highestOneBit(2 * width - 1);
+        this.depth = depth;
+        this.table = new int[this.width * depth];
+        this.candidates = new MonitoredWords(candidates);
+    }
+
+    @Override
+    public void add(char[] text, int start, int end) {
+        this.total++;
+        MonitoredWords words = this.candidates;
+        int word = words.find(text, start, end);
+        int hash = words.lastHash();
+        int step = Integer.rotateLeft(hash * 0x85EBCA6B, 15) | 1;
+        int mask = this.width - 1;
+
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0, h = hash; row < this.depth; row++, h += step) {
+            estimate = Math.min(estimate,
+                    this.table[row * this.width + (h & mask)]);
+        }
+        estimate++;
+        for (int row = 0, h = hash; row < this.depth; row++, h += step) {
+            int cell = row * this.width + (h & mask);
+            if (this.table[cell] < estimate) {
+                this.table[cell] = estimate;
+            }
+        }
+
+        if (word != MonitoredWords.ABSENT) {
+            words.setCount(word, estimate);
+        } else if (words.size() < words.capacity()) {
+            words.insert(estimate);
+        } else if (estimate > words.minCount()) {
+            words.replaceMin(estimate);
+        }
+    }
+
+    /**
+     * Reports the number of words added.
+     *
+     * @return the length of the stream
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Reports the number of candidate words.
+     *
+     * @return the number of candidates
+     */
+    public int candidateCount() {
+        return this.candidates.size();
+    }
+
+    /**
+     * Reports a sink that adds the words it receives to {@code words} if
+     * they are candidates, and drops the others.
+     *
+     * @param words
+     *            the table counting the candidates
+     * @return the sink
+     */
+    public WordSink candidatesOf(CaseVariantTable words) {
+        assert words != null : "Violation of: words is not null";
+        return (text, start, end) -> {
+            if (this.candidates.find(text, start,
+                    end) != MonitoredWords.ABSENT) {
+                words.add(text, start, end);
+            }
+        };
+    }
+
+}
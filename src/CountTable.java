@@ -0,0 +1,65 @@
+/**
+ * Counting table keyed by char sequences, whose entries keep the index they
+ * were given when their word was first added. This is what
+ * {@link CaseVariantTable} needs from the tables it counts variants and
+ * groups in, so they can be kept on the heap ({@link WordCountTable}) or off
+ * it ({@link OffHeapCountTable}).
+ *
+ * @author Lucas Wu
+ */
+public interface CountTable extends WordCounts {
+
+    /**
+     * Add {@code amount} to the count of the word {@code text[start, end)},
+     * inserting it if it is new.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @param amount
+     *            the amount to add
+     * @return the index of the word's entry
+     * @requires 0 <= start < end <= |text|
+     */
+    int add(char[] text, int start, int end, int amount);
+
+    /**
+     * Add {@code amount} to the count of the entry at {@code index}.
+     *
+     * @param index
+     *            index of the entry
+     * @param amount
+     *            the amount to add
+     * @requires 0 <= index < size()
+     */
+    void increment(int index, int amount);
+
+    /**
+     * Reports the length of the word at the given index.
+     *
+     * @param index
+     *            index of the entry
+     * @return number of chars of the word
+     * @requires 0 <= index < size()
+     */
+    int wordLength(int index);
+
+    /**
+     * Copy the chars of the word at the given index into {@code dest},
+     * starting at {@code destBegin}.
+     *
+     * @param index
+     *            index of the entry
+     * @param dest
+     *            the destination buffer
+     * @param destBegin
+     *            offset in {@code dest} of the first char copied
+     * @requires 0 <= index < size() and destBegin + wordLength(index) <=
+     *           |dest|
+     */
+    void getChars(int index, char[] dest, int destBegin);
+
+}
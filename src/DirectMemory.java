@@ -0,0 +1,111 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocates and frees memory outside the Java heap, as direct byte buffers.
+ *
+ * <p>
+ * A direct buffer is normally freed only after it has been garbage
+ * collected. {@link #free(ByteBuffer)} frees it at once through
+ * {@code sun.misc.Unsafe.invokeCleaner}, which the {@code jdk.unsupported}
+ * module makes available; if it cannot be reached, freeing is left to the
+ * garbage collector.
+ *
+ * @author Lucas Wu
+ */
+final class DirectMemory {
+
+    /**
+     * The {@code sun.misc.Unsafe} instance, or null.
+     */
+    private static final Object UNSAFE;
+
+    /**
+     * {@code sun.misc.Unsafe.invokeCleaner(ByteBuffer)}, or null.
+     */
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * private constructor for static class.
+     */
+    private DirectMemory() {
+    }
+
+    /**
+     * Allocate a zeroed direct buffer in native byte order.
+     *
+     * @param bytes
+     *            size of the buffer
+     * @return the buffer
+     */
+    static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Allocate a direct buffer holding the first {@code used} bytes of
+     * {@code old}, and free {@code old}.
+     *
+     * @param old
+     *            the buffer to grow
+     * @param used
+     *            number of bytes of {@code old} to keep
+     * @param bytes
+     *            size of the new buffer
+     * @return the new buffer
+     */
+    static ByteBuffer grow(ByteBuffer old, int used, int bytes) {
+        ByteBuffer result = allocate(bytes);
+        result.put(0, old, 0, used);
+        free(old);
+        return result;
+    }
+
+    /**
+     * Free a direct buffer now. The buffer, and any view of it, must not be
+     * used afterwards.
+     *
+     * @param buffer
+     *            the buffer, or null
+     */
+    static void free(ByteBuffer buffer) {
+        if (buffer != null && INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                // left to the garbage collector
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reports whether {@link #free(ByteBuffer)} frees memory at once.
+     *
+     * @return true if buffers are freed at once, false if they are freed by
+     *         the garbage collector
+     */
+    static boolean isDeterministic() {
+        return INVOKE_CLEANER != null;
+    }
+
+}
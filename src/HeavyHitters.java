@@ -0,0 +1,244 @@
+/**
+ * Bounded summary of the most frequent words of a stream, using the
+ * Space-Saving algorithm. At most {@code capacity} words are monitored, so
+ * memory does not depend on the size of the text or of its vocabulary.
+ *
+ * <p>
+ * A monitored word has its count incremented. A word that is not monitored
+ * takes the place of the monitored word with the lowest count {@code m}, and
+ * starts at {@code m + 1} with an error of {@code m}. The count of a word
+ * therefore never underestimates its true count, and overestimates it by at
+ * most its {@link #error(int)}, which is itself at most
+ * {@link #errorBound()} = total / capacity. Any word occurring more than
+ * total / capacity times is monitored. A capacity of a few times the number
+ * of words wanted keeps the top words and their order nearly exact on
+ * natural text.
+ *
+ * <p>
+ * Words are grouped by their lower-case form, like in
+ * {@link CaseVariantTable}. The capitalization shown for a word is the
+ * majority capitalization since it was last monitored, found by a running
+ * majority vote, so only one capitalization is stored per word.
+ *
+ * @author Lucas Wu
+ */
+public final class HeavyHitters implements WordCounts, WordSink {
+
+    /**
+     * Smallest buffer allocated for a word.
+     */
+    private static final int MIN_WORD = 16;
+
+    /**
+     * The monitored words and their counts.
+     */
+    private final MonitoredWords monitored;
+
+    /**
+     * Maximum overestimation of each count.
+     */
+    private final int[] errors;
+
+    /**
+     * Capitalization shown for each monitored word.
+     */
+    private final char[][] variants;
+
+    /**
+     * Length of each shown capitalization.
+     */
+    private final int[] variantLengths;
+
+    /**
+     * Majority vote of each shown capitalization.
+     */
+    private final int[] votes;
+
+    /**
+     * Number of words added.
+     */
+    private long total;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            maximum number of monitored words
+     */
+    public HeavyHitters(int capacity) {
+        assert capacity > 0 : "Violation of: capacity > 0";
+        this.monitored = new MonitoredWords(capacity);
+        this.errors = new int[capacity];
+        this.variants = new char[capacity][];
+        this.variantLengths = new int[capacity];
+        this.votes = new int[capacity];
+    }
+
+    @Override
+    public void add(char[] text, int start, int end) {
+        this.total++;
+        MonitoredWords words = this.monitored;
+        int word = words.find(text, start, end);
+        if (word != MonitoredWords.ABSENT) {
+            words.setCount(word, words.count(word) + 1);
+            this.vote(word, text, start, end);
+        } else {
+            if (words.size() < words.capacity()) {
+                word = words.insert(1);
+            } else {
+                int min = words.minCount();
+                word = words.replaceMin(min + 1);
+                this.errors[word] = min;
+            }
+            this.setVariant(word, text, start, end);
+            this.votes[word] = 1;
+        }
+    }
+
+    /**
+     * Reports the maximum number of monitored words.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return this.monitored.capacity();
+    }
+
+    /**
+     * Reports the number of words added.
+     *
+     * @return the length of the stream
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Reports by how much the count of the word at the given index may
+     * exceed its true count.
+     *
+     * @param index
+     *            index of the word
+     * @return the error of the count
+     * @requires 0 <= index < size()
+     */
+    @Override
+    public int error(int index) {
+        return this.errors[index];
+    }
+
+    /**
+     * Reports the bound on the error of every count: the number of words
+     * added divided by the capacity. A word that is not monitored occurs at
+     * most this many times.
+     *
+     * @return the error bound
+     */
+    public long errorBound() {
+        return this.total / this.monitored.capacity();
+    }
+
+    @Override
+    public int size() {
+        return this.monitored.size();
+    }
+
+    @Override
+    public String word(int index) {
+        return new String(this.variants[index], 0,
+                this.variantLengths[index]);
+    }
+
+    @Override
+    public int count(int index) {
+        return this.monitored.count(index);
+    }
+
+    /**
+     * Vote for the capitalization {@code text[start, end)} of a monitored
+     * word.
+     *
+     * @param word
+     *            the monitored word
+     * @param text
+     *            buffer holding the capitalization
+     * @param start
+     *            offset of the first char of the capitalization
+     * @param end
+     *            offset after the last char of the capitalization
+     */
+    private void vote(int word, char[] text, int start, int end) {
+        if (this.votes[word] == 0) {
+            this.setVariant(word, text, start, end);
+            this.votes[word] = 1;
+        } else if (this.isVariant(word, text, start, end)) {
+            this.votes[word]++;
+        } else {
+            this.votes[word]--;
+        }
+    }
+
+    /**
+     * Reports whether {@code text[start, end)} is the capitalization shown
+     * for a word.
+     *
+     * @param word
+     *            the monitored word
+     * @param text
+     *            buffer holding the capitalization
+     * @param start
+     *            offset of the first char of the capitalization
+     * @param end
+     *            offset after the last char of the capitalization
+     * @return true if the capitalizations are equal
+     */
+    private boolean isVariant(int word, char[] text, int start, int end) {
+        if (this.variantLengths[word] != end - start) {
+            return false;
+        }
+        char[] variant = this.variants[word];
+        for (int i = start; i < end; i++) {
+            if (variant[i - start] != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set the capitalization shown for a word.
+     *
+     * @param word
+     *            the monitored word
+     * @param text
+     *            buffer holding the capitalization
+     * @param start
+     *            offset of the first char of the capitalization
+     * @param end
+     *            offset after the last char of the capitalization
+     */
+    private void setVariant(int word, char[] text, int start, int end) {
+        this.variants[word] = fit(this.variants[word], end - start);
+        System.arraycopy(text, start, this.variants[word], 0, end - start);
+        this.variantLengths[word] = end - start;
+    }
+
+    /**
+     * Reports a buffer of at least the given length, reusing the given one
+     * if it is long enough.
+     *
+     * @param buffer
+     *            the current buffer, or null
+     * @param length
+     *            the length needed
+     * @return the buffer
+     */
+    private static char[] fit(char[] buffer, int length) {
+        char[] result = buffer;
+        if (result == null || result.length < length) {
+            result = new char[Math.max(MIN_WORD, 2 * length)];
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,528 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes the HTML page of a tag cloud straight into bytes, with the same
+ * content as {@link TagcloudGenerator#generateTagCloud}.
+ *
+ * <p>
+ * The fixed parts of the page and the start of the span of each font size
+ * are encoded once, when the renderer is made. Rendering a cloud copies
+ * those fragments, the digits of each count and the chars of each word into
+ * a buffer kept by each thread, and writes the buffer out whenever it is
+ * full, to an {@link OutputStream} or a {@link WritableByteChannel} such as
+ * a {@code FileChannel}. The list of words is read, not changed, and no
+ * String is built per word. Words and names made only of ASCII chars are
+ * encoded without a {@link Charset} call. A charset in which ASCII is not
+ * one byte per char, such as UTF-16, gets the page encoded as a whole.
+ *
+ * <p>
+ * The page links to the course stylesheet, or, with {@code inlineStyle},
+ * holds a stylesheet of its own with a rule for each font class {@code f11}
+ * to {@code f37} that the cloud uses, and no other: such a page needs no
+ * other request to show, and shows offline.
+ *
+ * @author Lucas Wu
+ */
+public final class HtmlRenderer implements CloudRenderer {
+
+    /**
+     * Bytes of the buffer of each thread.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Most bytes a char is encoded to, by the manual UTF-8 path.
+     */
+    private static final int MAX_CHAR_BYTES = 4;
+
+    /**
+     * Largest number of digits of a count, with its sign.
+     */
+    private static final int MAX_DIGITS = 11;
+
+    /**
+     * Smallest font class.
+     */
+    private static final int SMALLEST_FONT = TagcloudGenerator.fontSize(0, 0,
+            1);
+
+    /**
+     * Largest font class.
+     */
+    private static final int LARGEST_FONT = TagcloudGenerator.fontSize(1, 0,
+            1);
+
+    /**
+     * Buffer of each thread.
+     */
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal
+            .withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /**
+     * Encoding of the page.
+     */
+    private final Charset charset;
+
+    /**
+     * Whether ASCII chars are one byte each, the same byte.
+     */
+    private final boolean asciiCompatible;
+
+    /**
+     * Whether the page is UTF-8.
+     */
+    private final boolean utf8;
+
+    /**
+     * From the start of the page to the N of the title.
+     */
+    private final byte[] head;
+
+    /**
+     * Between N and the name, in the title and the heading.
+     */
+    private final byte[] wordsIn;
+
+    /**
+     * Whether the page holds its own stylesheet.
+     */
+    private final boolean inlineStyle;
+
+    /**
+     * From the name in the title to the end of the link to the course
+     * stylesheet.
+     */
+    private final byte[] link;
+
+    /**
+     * From the name in the title to the first font rule of the stylesheet.
+     */
+    private final byte[] styleStart;
+
+    /**
+     * Rule of each font size from the smallest.
+     */
+    private final byte[][] fontRule;
+
+    /**
+     * End of the stylesheet.
+     */
+    private final byte[] styleEnd;
+
+    /**
+     * From the stylesheet to the N of the heading.
+     */
+    private final byte[] middle;
+
+    /**
+     * From the name in the heading to the first span.
+     */
+    private final byte[] beforeSpans;
+
+    /**
+     * Start of a span, up to its count, for each font size from the
+     * smallest.
+     */
+    private final byte[][] spanStart;
+
+    /**
+     * Between the count of a span and its word.
+     */
+    private final byte[] spanMiddle;
+
+    /**
+     * End of a span.
+     */
+    private final byte[] spanEnd;
+
+    /**
+     * From the last span to the end of the page.
+     */
+    private final byte[] tail;
+
+    /**
+     * Holds the buffer being filled and where it goes.
+     */
+    private final class Output {
+
+        /**
+         * The buffer.
+         */
+        private final byte[] buffer;
+
+        /**
+         * Number of bytes in the buffer.
+         */
+        private int size;
+
+        /**
+         * Stream the buffer is written to, or null.
+         */
+        private final OutputStream stream;
+
+        /**
+         * Channel the buffer is written to, or null.
+         */
+        private final WritableByteChannel channel;
+
+        /**
+         * Constructor.
+         *
+         * @param stream
+         *            stream the buffer is written to, or null
+         * @param channel
+         *            channel the buffer is written to, or null
+         */
+        private Output(OutputStream stream, WritableByteChannel channel) {
+            this.buffer = BUFFER.get();
+            this.stream = stream;
+            this.channel = channel;
+        }
+
+        /**
+         * Write out the buffer and empty it.
+         *
+         * @throws IOException
+         *             if the buffer cannot be written
+         */
+        private void flush() throws IOException {
+            if (this.stream != null) {
+                this.stream.write(this.buffer, 0, this.size);
+            } else {
+                ByteBuffer bytes = ByteBuffer.wrap(this.buffer, 0, this.size);
+                while (bytes.hasRemaining()) {
+                    this.channel.write(bytes);
+                }
+            }
+            this.size = 0;
+        }
+
+        /**
+         * Make room for some bytes.
+         *
+         * @param bytes
+         *            number of bytes
+         * @throws IOException
+         *             if the buffer cannot be written
+         */
+        private void reserve(int bytes) throws IOException {
+            if (this.size + bytes > this.buffer.length) {
+                this.flush();
+            }
+        }
+
+        /**
+         * Append encoded bytes.
+         *
+         * @param bytes
+         *            the bytes
+         * @throws IOException
+         *             if the buffer cannot be written
+         */
+        private void put(byte[] bytes) throws IOException {
+            if (bytes.length > this.buffer.length - this.size) {
+                this.flush();
+            }
+            if (bytes.length > this.buffer.length) {
+                this.writeDirect(bytes);
+            } else {
+                System.arraycopy(bytes, 0, this.buffer, this.size,
+                        bytes.length);
+                this.size += bytes.length;
+            }
+        }
+
+        /**
+         * Write bytes larger than the buffer, after it has been flushed.
+         *
+         * @param bytes
+         *            the bytes
+         * @throws IOException
+         *             if the bytes cannot be written
+         */
+        private void writeDirect(byte[] bytes) throws IOException {
+            if (this.stream != null) {
+                this.stream.write(bytes);
+            } else {
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    this.channel.write(wrapped);
+                }
+            }
+        }
+
+        /**
+         * Append the decimal digits of a number.
+         *
+         * @param number
+         *            the number
+         * @throws IOException
+         *             if the buffer cannot be written
+         */
+        private void putInt(int number) throws IOException {
+            this.reserve(MAX_DIGITS);
+            long value = number;
+            if (value < 0) {
+                this.buffer[this.size++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            for (int i = digits - 1; i >= 0; i--) {
+                this.buffer[this.size + i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            this.size += digits;
+        }
+
+        /**
+         * Append the chars of a String, encoded.
+         *
+         * @param text
+         *            the String
+         * @throws IOException
+         *             if the buffer cannot be written
+         */
+        private void putString(String text) throws IOException {
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    this.reserve(1);
+                    this.buffer[this.size++] = (byte) c;
+                } else if (HtmlRenderer.this.utf8) {
+                    this.reserve(MAX_CHAR_BYTES);
+                    i = this.putUtf8(text, i);
+                } else {
+                    this.put(text.substring(i)
+                            .getBytes(HtmlRenderer.this.charset));
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Append the UTF-8 bytes of the char of a String at an index, or of
+         * the surrogate pair starting there. A lone surrogate is written as
+         * {@code ?}, as the encoder of the platform does.
+         *
+         * @param text
+         *            the String
+         * @param i
+         *            index of the char, at least 0x80
+         * @return index of the last char used
+         */
+        private int putUtf8(String text, int i) {
+            int codePoint = text.charAt(i);
+            int last = i;
+            if (Character.isHighSurrogate(text.charAt(i))
+                    && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(text.charAt(i),
+                        text.charAt(i + 1));
+                last = i + 1;
+            } else if (Character.isSurrogate(text.charAt(i))) {
+                codePoint = '?';
+            }
+            byte[] b = this.buffer;
+            if (codePoint < 0x80) {
+                b[this.size++] = (byte) codePoint;
+            } else if (codePoint < 0x800) {
+                b[this.size++] = (byte) (0xC0 | (codePoint >> 6));
+                b[this.size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (codePoint < 0x10000) {
+                b[this.size++] = (byte) (0xE0 | (codePoint >> 12));
+                b[this.size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                b[this.size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                b[this.size++] = (byte) (0xF0 | (codePoint >> 18));
+                b[this.size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                b[this.size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                b[this.size++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            return last;
+        }
+
+    }
+
+    /**
+     * Constructor of a renderer linking to the course stylesheet, as
+     * {@link TagcloudGenerator#generateTagCloud} does.
+     *
+     * @param charset
+     *            encoding of the page
+     */
+    public HtmlRenderer(Charset charset) {
+        this(charset, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param charset
+     *            encoding of the page
+     * @param inlineStyle
+     *            whether the page holds its own stylesheet instead of linking
+     *            to the course one
+     */
+    public HtmlRenderer(Charset charset, boolean inlineStyle) {
+        assert charset != null : "Violation of: charset is not null";
+        this.charset = charset;
+        this.inlineStyle = inlineStyle;
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.asciiCompatible = this.utf8
+                || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+
+        String nl = System.lineSeparator();
+        this.head = this.encode("<html>" + nl + "<head>" + nl + "<title>Top ");
+        this.wordsIn = this.encode(" words in ");
+        this.link = this.encode("</title>" + nl
+                + "<link href=\"http://web.cse.ohio-state.edu/software/2231/"
+                + "web-sw2/assignments/projects/tag-cloud-generator/data/"
+                + "tagcloud.css\" rel=\"stylesheet\" type=\"text/css\">"
+                + nl);
+        this.styleStart = this.encode("</title>" + nl
+                + "<style type=\"text/css\">" + nl
+                + ".cdiv { margin: 0 auto; width: 80%; }" + nl
+                + ".cbox { line-height: 1.6; text-align: center; }" + nl
+                + ".cbox span { margin: 0 0.2em; }" + nl);
+        this.fontRule = new byte[LARGEST_FONT - SMALLEST_FONT + 1][];
+        for (int f = SMALLEST_FONT; f <= LARGEST_FONT; f++) {
+            this.fontRule[f - SMALLEST_FONT] = this.encode(".f" + f
+                    + " { font-size: " + f + "px; }" + nl);
+        }
+        this.styleEnd = this.encode("</style>" + nl);
+        this.middle = this.encode(
+                "</head>" + nl + "<body>" + nl + "<h2>Top ");
+        this.beforeSpans = this.encode("</h2>" + nl + "<hr>" + nl
+                + "<div class=\"cdiv\">" + nl + "<p class=\"cbox\">" + nl);
+        this.spanStart = new byte[LARGEST_FONT - SMALLEST_FONT + 1][];
+        for (int f = SMALLEST_FONT; f <= LARGEST_FONT; f++) {
+            this.spanStart[f - SMALLEST_FONT] = this.encode("<span style="
+                    + "\"cursor:default\" class=\"f" + f
+                    + "\" title=\"count:");
+        }
+        this.spanMiddle = this.encode("\">");
+        this.spanEnd = this.encode("</span>" + nl);
+        this.tail = this.encode("</p>" + nl + "</div>" + nl + "</body>" + nl
+                + "</html>" + nl);
+    }
+
+    @Override
+    public void render(List<WordCount> words, String name, OutputStream out)
+            throws IOException {
+        assert out != null : "Violation of: out is not null";
+        this.render(words, name, new Output(out, null));
+    }
+
+    /**
+     * Write the HTML page of a tag cloud to a channel. The channel is not
+     * closed, and {@code words} is not changed.
+     *
+     * @param words
+     *            the words of the cloud, in alphabetical order
+     * @param name
+     *            the name of the text the words come from
+     * @param out
+     *            the channel to write to
+     * @throws IOException
+     *             if the channel cannot be written
+     */
+    public void render(List<WordCount> words, String name,
+            WritableByteChannel out) throws IOException {
+        assert out != null : "Violation of: out is not null";
+        this.render(words, name, new Output(null, out));
+    }
+
+    /**
+     * Write the HTML page of a tag cloud.
+     *
+     * @param words
+     *            the words of the cloud, in alphabetical order
+     * @param name
+     *            the name of the text the words come from
+     * @param out
+     *            the buffer and where it goes
+     * @throws IOException
+     *             if the output cannot be written
+     */
+    private void render(List<WordCount> words, String name, Output out)
+            throws IOException {
+        assert words != null : "Violation of: words is not null";
+        if (!this.asciiCompatible) {
+            // fragments cannot be encoded apart, as with a byte order mark
+            ByteArrayOutputStream page = new ByteArrayOutputStream();
+            new HtmlRenderer(StandardCharsets.UTF_8, this.inlineStyle)
+                    .render(words, name, page);
+            out.put(page.toString(StandardCharsets.UTF_8)
+                    .getBytes(this.charset));
+            out.flush();
+            return;
+        }
+        int lowest = Integer.MAX_VALUE;
+        int highest = Integer.MIN_VALUE;
+        for (WordCount entry : words) {
+            lowest = Math.min(lowest, entry.getCount());
+            highest = Math.max(highest, entry.getCount());
+        }
+
+        out.put(this.head);
+        out.putInt(words.size());
+        out.put(this.wordsIn);
+        out.putString(name);
+        if (this.inlineStyle) {
+            boolean[] used = new boolean[this.fontRule.length];
+            for (WordCount entry : words) {
+                used[TagcloudGenerator.fontSize(entry.getCount(), lowest,
+                        highest) - SMALLEST_FONT] = true;
+            }
+            out.put(this.styleStart);
+            for (int f = 0; f < used.length; f++) {
+                if (used[f]) {
+                    out.put(this.fontRule[f]);
+                }
+            }
+            out.put(this.styleEnd);
+        } else {
+            out.put(this.link);
+        }
+        out.put(this.middle);
+        out.putInt(words.size());
+        out.put(this.wordsIn);
+        out.putString(name);
+        out.put(this.beforeSpans);
+        for (WordCount entry : words) {
+            int count = entry.getCount();
+            out.put(this.spanStart[TagcloudGenerator.fontSize(count, lowest,
+                    highest) - SMALLEST_FONT]);
+            out.putInt(count);
+            out.put(this.spanMiddle);
+            out.putString(entry.getWord());
+            out.put(this.spanEnd);
+        }
+        out.put(this.tail);
+        out.flush();
+    }
+
+    /**
+     * Encode a fixed part of the page.
+     *
+     * @param text
+     *            the text
+     * @return its bytes
+     */
+    private byte[] encode(String text) {
+        return text.getBytes(this.charset);
+    }
+
+}
@@ -0,0 +1,140 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with one bucket per power of 2 microseconds, safe
+ * to record into from many threads without locking.
+ *
+ * <p>
+ * Bucket 0 counts latencies under 1 microsecond, and bucket {@code b > 0}
+ * those from 2<sup>b-1</sup> up to 2<sup>b</sup> microseconds, so a
+ * percentile is known within a factor of 2 whatever the range of latencies,
+ * in a fixed, small amount of memory.
+ *
+ * @author Lucas Wu
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Number of buckets: enough for any latency in microseconds.
+     */
+    private static final int BUCKETS = Long.SIZE;
+
+    /**
+     * Nanoseconds in a microsecond.
+     */
+    private static final long MICROSECOND = 1000;
+
+    /**
+     * Count of each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Largest latency recorded, in nanoseconds.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos
+     *            the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(nanos, 0) / MICROSECOND;
+        this.counts.incrementAndGet(
+                Long.SIZE - Long.numberOfLeadingZeros(micros));
+        this.max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Reports the number of buckets.
+     *
+     * @return the number of buckets
+     */
+    public int bucketCount() {
+        return BUCKETS;
+    }
+
+    /**
+     * Reports the number of latencies recorded in a bucket.
+     *
+     * @param bucket
+     *            the bucket
+     * @return its count
+     * @requires 0 <= bucket < bucketCount()
+     */
+    public long count(int bucket) {
+        return this.counts.get(bucket);
+    }
+
+    /**
+     * Reports the upper bound of a bucket: every latency in it is lower.
+     *
+     * @param bucket
+     *            the bucket
+     * @return the upper bound in microseconds
+     * @requires 0 <= bucket < bucketCount()
+     */
+    public long upperBound(int bucket) {
+        long result = Long.MAX_VALUE;
+        if (bucket < BUCKETS - 1) {
+            result = 1L << bucket;
+        }
+        return result;
+    }
+
+    /**
+     * Reports the number of latencies recorded.
+     *
+     * @return the total count
+     */
+    public long count() {
+        long result = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            result += this.counts.get(b);
+        }
+        return result;
+    }
+
+    /**
+     * Reports the largest latency recorded.
+     *
+     * @return the largest latency in microseconds, 0 if none was recorded
+     */
+    public long max() {
+        return this.max.get() / MICROSECOND;
+    }
+
+    /**
+     * Reports a percentile of the latencies recorded, as the upper bound of
+     * the bucket it falls in.
+     *
+     * @param percent
+     *            the percentile, such as 50 or 99
+     * @return a bound in microseconds that at least {@code percent} percent
+     *         of the latencies are under, 0 if none was recorded
+     * @requires 0 < percent <= 100
+     */
+    public long percentile(double percent) {
+        assert 0 < percent && percent <= 100 : "Violation of: valid percent";
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            snapshot[b] = this.counts.get(b);
+            total += snapshot[b];
+        }
+        long rank = (long) Math.ceil(total * percent / 100);
+        long result = 0;
+        long seen = 0;
+        int b = 0;
+        while (total > 0 && seen < rank) {
+            seen += snapshot[b];
+            result = this.upperBound(b);
+            b++;
+        }
+        return result;
+    }
+
+}
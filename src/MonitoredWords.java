@@ -0,0 +1,399 @@
+import java.util.Arrays;
+
+/**
+ * Fixed number of words, each with a count, indexed by their lower-case form
+ * and ordered by count in a min-heap. This is the bookkeeping shared by the
+ * bounded summaries: finding a word, adding a word while there is room,
+ * replacing the word with the lowest count, and raising a count.
+ *
+ * <p>
+ * A word is looked up with {@link #find(char[], int, int)}, which also keeps
+ * its lower-case form; {@link #insert(int)} and {@link #replaceMin(int)}
+ * then monitor that form. Words are numbered from 0 in the order they were
+ * first inserted, and a replaced word keeps its number.
+ *
+ * @author Lucas Wu
+ */
+final class MonitoredWords {
+
+    /**
+     * Returned by {@link #find(char[], int, int)} for a word that is not
+     * monitored.
+     */
+    static final int ABSENT = -1;
+
+    /**
+     * Marks an unused bucket.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * Smallest buffer allocated for a word.
+     */
+    private static final int MIN_WORD = 16;
+
+    /**
+     * Maximum number of monitored words.
+     */
+    private final int capacity;
+
+    /**
+     * Lower-case form of each monitored word.
+     */
+    private final char[][] keys;
+
+    /**
+     * Length of each lower-case form.
+     */
+    private final int[] keyLengths;
+
+    /**
+     * Hash of each lower-case form.
+     */
+    private final int[] hashes;
+
+    /**
+     * Count of each monitored word.
+     */
+    private final int[] counts;
+
+    /**
+     * Min-heap of the monitored words by count.
+     */
+    private final int[] heap;
+
+    /**
+     * Position in {@link #heap} of each monitored word.
+     */
+    private final int[] heapIndex;
+
+    /**
+     * Hash buckets holding monitored words, or {@link #EMPTY}.
+     */
+    private final int[] buckets;
+
+    /**
+     * Number of monitored words.
+     */
+    private int size;
+
+    /**
+     * Lower-case form of the word last looked up.
+     */
+    private char[] folded;
+
+    /**
+     * Length of {@link #folded}.
+     */
+    private int foldedLength;
+
+    /**
+     * Hash of {@link #folded}.
+     */
+    private int foldedHash;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            maximum number of monitored words
+     */
+    MonitoredWords(int capacity) {
+        assert capacity > 0 : "Violation of: capacity > 0";
+        this.capacity = capacity;
+        this.keys = new char[capacity][];
+        this.keyLengths = new int[capacity];
+        this.hashes = new int[capacity];
+        this.counts = new int[capacity];
+        this.heap = new int[capacity];
+        this.heapIndex = new int[capacity];
+        this.buckets = new int[Integer.highestOneBit(capacity) * 4];
+        Arrays.fill(this.buckets, EMPTY);
+        this.folded = new char[MIN_WORD];
+    }
+
+    /**
+     * Look up the word {@code text[start, end)} regardless of case, and keep
+     * its lower-case form for {@link #insert(int)} or
+     * {@link #replaceMin(int)}.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @return the monitored word, or {@link #ABSENT}
+     */
+    int find(char[] text, int start, int end) {
+        this.fold(text, start, end);
+        int length = this.foldedLength;
+        int hash = this.foldedHash;
+        int mask = this.buckets.length - 1;
+        int bucket = hash & mask;
+        int word = this.buckets[bucket];
+        while (word != EMPTY) {
+            if (this.hashes[word] == hash && this.keyLengths[word] == length
+                    && Arrays.equals(this.keys[word], 0, length, this.folded,
+                            0, length)) {
+                return word;
+            }
+            bucket = (bucket + 1) & mask;
+            word = this.buckets[bucket];
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Reports the hash of the lower-case form of the word last looked up.
+     *
+     * @return the hash
+     */
+    int lastHash() {
+        return this.foldedHash;
+    }
+
+    /**
+     * Monitor the word last looked up, which is not monitored, with the
+     * given count.
+     *
+     * @param count
+     *            the count of the word
+     * @return the number of the word
+     * @requires size() < capacity()
+     */
+    int insert(int count) {
+        assert this.size < this.capacity : "Violation of: not full";
+        int word = this.size;
+        this.size++;
+        this.setKey(word);
+        this.counts[word] = count;
+        this.heap[word] = word;
+        this.heapIndex[word] = word;
+        this.siftUp(word);
+        return word;
+    }
+
+    /**
+     * Monitor the word last looked up, which is not monitored, in place of
+     * the word with the lowest count, with the given count.
+     *
+     * @param count
+     *            the count of the word, at least {@link #minCount()}
+     * @return the number of the word, that of the word replaced
+     * @requires size() > 0
+     */
+    int replaceMin(int count) {
+        int word = this.heap[0];
+        this.unlink(word);
+        this.setKey(word);
+        this.counts[word] = count;
+        this.siftDown(0);
+        return word;
+    }
+
+    /**
+     * Raise the count of a monitored word.
+     *
+     * @param word
+     *            the monitored word
+     * @param count
+     *            the new count, at least the current one
+     */
+    void setCount(int word, int count) {
+        assert count >= this.counts[word] : "Violation of: count not lower";
+        this.counts[word] = count;
+        this.siftDown(this.heapIndex[word]);
+    }
+
+    /**
+     * Reports the lowest count of the monitored words.
+     *
+     * @return the lowest count
+     * @requires size() > 0
+     */
+    int minCount() {
+        return this.counts[this.heap[0]];
+    }
+
+    /**
+     * Reports the count of a monitored word.
+     *
+     * @param word
+     *            the monitored word
+     * @return the count
+     */
+    int count(int word) {
+        return this.counts[word];
+    }
+
+    /**
+     * Reports the number of monitored words.
+     *
+     * @return the number of words
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Reports the maximum number of monitored words.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Make the word last looked up the lower-case form of a monitored word,
+     * and put it in its hash bucket.
+     *
+     * @param word
+     *            the monitored word
+     */
+    private void setKey(int word) {
+        int length = this.foldedLength;
+        if (this.keys[word] == null || this.keys[word].length < length) {
+            this.keys[word] = new char[Math.max(MIN_WORD, 2 * length)];
+        }
+        System.arraycopy(this.folded, 0, this.keys[word], 0, length);
+        this.keyLengths[word] = length;
+        this.hashes[word] = this.foldedHash;
+
+        int mask = this.buckets.length - 1;
+        int bucket = this.foldedHash & mask;
+        while (this.buckets[bucket] != EMPTY) {
+            bucket = (bucket + 1) & mask;
+        }
+        this.buckets[bucket] = word;
+    }
+
+    /**
+     * Take a monitored word out of its hash bucket, moving back the words
+     * after it that were displaced past the freed bucket.
+     *
+     * @param word
+     *            the monitored word
+     */
+    private void unlink(int word) {
+        int mask = this.buckets.length - 1;
+        int free = this.hashes[word] & mask;
+        while (this.buckets[free] != word) {
+            free = (free + 1) & mask;
+        }
+        int bucket = (free + 1) & mask;
+        while (this.buckets[bucket] != EMPTY) {
+            int home = this.hashes[this.buckets[bucket]] & mask;
+            // distance from home to bucket versus from free to bucket
+            if (((bucket - home) & mask) >= ((bucket - free) & mask)) {
+                this.buckets[free] = this.buckets[bucket];
+                free = bucket;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        this.buckets[free] = EMPTY;
+    }
+
+    /**
+     * Lower-case {@code text[start, end)} into {@link #folded} and hash it.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     */
+    private void fold(char[] text, int start, int end) {
+        if (2 * (end - start) > this.folded.length) {
+            this.folded = new char[2 * (end - start)];
+        }
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            int codePoint = Character.codePointAt(text, i, end);
+            length += Character.toChars(Character.toLowerCase(codePoint),
+                    this.folded, length);
+            i += Character.charCount(codePoint);
+        }
+        int hash = 0;
+        for (int j = 0; j < length; j++) {
+            hash = 31 * hash + this.folded[j];
+        }
+        hash *= 0x9E3779B9;
+        this.foldedLength = length;
+        this.foldedHash = hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Move the word at heap position {@code i} up to its place.
+     *
+     * @param i
+     *            the heap position
+     */
+    private void siftUp(int i) {
+        int child = i;
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (!this.lower(child, parent)) {
+                break;
+            }
+            this.swap(child, parent);
+            child = parent;
+        }
+    }
+
+    /**
+     * Move the word at heap position {@code i} down to its place.
+     *
+     * @param i
+     *            the heap position
+     */
+    private void siftDown(int i) {
+        int parent = i;
+        int child = 2 * parent + 1;
+        while (child < this.size) {
+            if (child + 1 < this.size && this.lower(child + 1, child)) {
+                child++;
+            }
+            if (!this.lower(child, parent)) {
+                break;
+            }
+            this.swap(parent, child);
+            parent = child;
+            child = 2 * parent + 1;
+        }
+    }
+
+    /**
+     * Reports whether the word at heap position {@code i} has a lower count
+     * than the word at heap position {@code j}.
+     *
+     * @param i
+     *            a heap position
+     * @param j
+     *            another heap position
+     * @return true if the count at {@code i} is lower
+     */
+    private boolean lower(int i, int j) {
+        return this.counts[this.heap[i]] < this.counts[this.heap[j]];
+    }
+
+    /**
+     * Swap two heap positions.
+     *
+     * @param i
+     *            a heap position
+     * @param j
+     *            another heap position
+     */
+    private void swap(int i, int j) {
+        int word = this.heap[i];
+        this.heap[i] = this.heap[j];
+        this.heap[j] = word;
+        this.heapIndex[this.heap[i]] = i;
+        this.heapIndex[this.heap[j]] = j;
+    }
+
+}
@@ -0,0 +1,383 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Counting table like {@link WordCountTable} whose storage lives outside the
+ * Java heap, in three direct buffers: the chars of all words, one fixed-size
+ * record (offset, length, hash, count) per entry, and the hash buckets. The
+ * garbage collector sees three objects however many words are counted.
+ *
+ * <p>
+ * Entries keep the index they were given when their word was first added,
+ * and lookup uses open addressing with linear probing, as in
+ * {@link WordCountTable}. {@link #close()} frees the memory at once (see
+ * {@link DirectMemory}); the table must not be used afterwards.
+ *
+ * @author Lucas Wu
+ */
+public final class OffHeapCountTable implements CountTable, AutoCloseable {
+
+    /**
+     * Initial number of entries.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Initial number of chars in the pool.
+     */
+    private static final int INITIAL_POOL = 8192;
+
+    /**
+     * Marks an unused bucket.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * Bytes in a char.
+     */
+    private static final int CHAR_BYTES = 2;
+
+    /**
+     * Bytes in an int.
+     */
+    private static final int INT_BYTES = 4;
+
+    /**
+     * Bytes in an entry record.
+     */
+    private static final int RECORD_BYTES = 4 * INT_BYTES;
+
+    /**
+     * Position of the pool offset in a record.
+     */
+    private static final int OFFSET = 0;
+
+    /**
+     * Position of the word length in a record.
+     */
+    private static final int LENGTH = INT_BYTES;
+
+    /**
+     * Position of the hash in a record.
+     */
+    private static final int HASH = 2 * INT_BYTES;
+
+    /**
+     * Position of the count in a record.
+     */
+    private static final int COUNT = 3 * INT_BYTES;
+
+    /**
+     * Chars of all words, back to back.
+     */
+    private ByteBuffer pool;
+
+    /**
+     * Number of chars used in the pool.
+     */
+    private int poolSize;
+
+    /**
+     * One record per entry.
+     */
+    private ByteBuffer entries;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Hash buckets holding entry indexes, or {@link #EMPTY}.
+     */
+    private ByteBuffer buckets;
+
+    /**
+     * Number of buckets, a power of 2.
+     */
+    private int bucketCount;
+
+    /**
+     * Constructor.
+     */
+    public OffHeapCountTable() {
+        this.pool = DirectMemory.allocate(CHAR_BYTES * INITIAL_POOL);
+        this.entries = DirectMemory.allocate(RECORD_BYTES * INITIAL_CAPACITY);
+        this.buckets = newBuckets(2 * INITIAL_CAPACITY);
+        this.bucketCount = 2 * INITIAL_CAPACITY;
+    }
+
+    @Override
+    public int add(char[] text, int start, int end, int amount) {
+        assert text != null : "Violation of: text is not null";
+        assert 0 <= start && start < end
+                && end <= text.length : "Violation of: valid word";
+        assert this.pool != null : "Violation of: not closed";
+        int hash = hash(text, start, end);
+        int mask = this.bucketCount - 1;
+        int bucket = mix(hash) & mask;
+        int index = this.buckets.getInt(INT_BYTES * bucket);
+        while (index != EMPTY) {
+            if (this.field(index, HASH) == hash
+                    && this.matches(index, text, start, end)) {
+                this.increment(index, amount);
+                return index;
+            }
+            bucket = (bucket + 1) & mask;
+            index = this.buckets.getInt(INT_BYTES * bucket);
+        }
+
+        index = this.insert(text, start, end, hash, amount);
+        this.buckets.putInt(INT_BYTES * bucket, index);
+        if (2 * this.size > this.bucketCount) {
+            this.rehash(2 * this.bucketCount);
+        }
+        return index;
+    }
+
+    @Override
+    public void increment(int index, int amount) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        int at = RECORD_BYTES * index + COUNT;
+        this.entries.putInt(at, this.entries.getInt(at) + amount);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public String word(int index) {
+        char[] chars = new char[this.wordLength(index)];
+        this.getChars(index, chars, 0);
+        return new String(chars);
+    }
+
+    @Override
+    public int count(int index) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        return this.field(index, COUNT);
+    }
+
+    @Override
+    public int wordLength(int index) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        return this.field(index, LENGTH);
+    }
+
+    @Override
+    public void getChars(int index, char[] dest, int destBegin) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        int offset = this.field(index, OFFSET);
+        int length = this.field(index, LENGTH);
+        for (int i = 0; i < length; i++) {
+            dest[destBegin + i] = this.pool.getChar(CHAR_BYTES * (offset + i));
+        }
+    }
+
+    /**
+     * Reports the number of bytes of memory held by the table.
+     *
+     * @return bytes allocated outside the heap
+     */
+    public long offHeapBytes() {
+        long result = 0;
+        if (this.pool != null) {
+            result = (long) this.pool.capacity() + this.entries.capacity()
+                    + this.buckets.capacity();
+        }
+        return result;
+    }
+
+    /**
+     * Free the memory of the table. The table must not be used afterwards;
+     * closing it again does nothing.
+     */
+    @Override
+    public void close() {
+        DirectMemory.free(this.pool);
+        DirectMemory.free(this.entries);
+        DirectMemory.free(this.buckets);
+        this.pool = null;
+        this.entries = null;
+        this.buckets = null;
+        this.size = 0;
+    }
+
+    /**
+     * Reports a field of an entry record.
+     *
+     * @param index
+     *            index of the entry
+     * @param field
+     *            position of the field in the record
+     * @return the field
+     */
+    private int field(int index, int field) {
+        return this.entries.getInt(RECORD_BYTES * index + field);
+    }
+
+    /**
+     * Hash of {@code text[start, end)}, equal to the hashCode of the
+     * corresponding String.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char
+     * @param end
+     *            offset after the last char
+     * @return the hash
+     */
+    private static int hash(char[] text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Spread the high bits of a hash into the low bits used for buckets.
+     *
+     * @param hash
+     *            the hash
+     * @return the mixed hash
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Make a buffer of empty buckets.
+     *
+     * @param length
+     *            number of buckets, a power of 2
+     * @return the buckets
+     */
+    private static ByteBuffer newBuckets(int length) {
+        ByteBuffer result = DirectMemory.allocate(INT_BYTES * length);
+        for (int i = 0; i < length; i++) {
+            result.putInt(INT_BYTES * i, EMPTY);
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether the entry's word equals {@code text[start, end)}.
+     *
+     * @param index
+     *            index of the entry
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char
+     * @param end
+     *            offset after the last char
+     * @return true if the words are equal
+     */
+    private boolean matches(int index, char[] text, int start, int end) {
+        int length = end - start;
+        if (this.field(index, LENGTH) != length) {
+            return false;
+        }
+        int offset = this.field(index, OFFSET);
+        for (int i = 0; i < length; i++) {
+            if (this.pool.getChar(CHAR_BYTES * (offset + i)) != text[start
+                    + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Append a new entry, growing the buffers if needed.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char
+     * @param end
+     *            offset after the last char
+     * @param hash
+     *            hash of the word
+     * @param amount
+     *            initial count
+     * @return the index of the new entry
+     */
+    private int insert(char[] text, int start, int end, int hash,
+            int amount) {
+        int length = end - start;
+        int poolChars = this.pool.capacity() / CHAR_BYTES;
+        if (this.poolSize + length > poolChars) {
+            int chars = capacity(2L * poolChars,
+                    (long) this.poolSize + length, CHAR_BYTES);
+            this.pool = DirectMemory.grow(this.pool,
+                    CHAR_BYTES * this.poolSize, CHAR_BYTES * chars);
+        }
+        int records = this.entries.capacity() / RECORD_BYTES;
+        if (this.size == records) {
+            records = capacity(2L * records, this.size + 1L, RECORD_BYTES);
+            this.entries = DirectMemory.grow(this.entries,
+                    RECORD_BYTES * this.size, RECORD_BYTES * records);
+        }
+        for (int i = 0; i < length; i++) {
+            this.pool.putChar(CHAR_BYTES * (this.poolSize + i),
+                    text[start + i]);
+        }
+        int index = this.size;
+        int at = RECORD_BYTES * index;
+        this.entries.putInt(at + OFFSET, this.poolSize);
+        this.entries.putInt(at + LENGTH, length);
+        this.entries.putInt(at + HASH, hash);
+        this.entries.putInt(at + COUNT, amount);
+        this.poolSize += length;
+        this.size++;
+        return index;
+    }
+
+    /**
+     * Reports the number of elements of a grown buffer: as many as wanted,
+     * or as many as fit in a buffer.
+     *
+     * @param wanted
+     *            number of elements wanted
+     * @param needed
+     *            number of elements needed
+     * @param elementBytes
+     *            bytes per element
+     * @return the number of elements
+     * @throws IllegalStateException
+     *             if the elements needed do not fit in a buffer
+     */
+    private static int capacity(long wanted, long needed, int elementBytes) {
+        long max = Integer.MAX_VALUE / elementBytes;
+        if (needed > max) {
+            throw new IllegalStateException("Off-heap table is full");
+        }
+        return (int) Math.max(needed, Math.min(wanted, max));
+    }
+
+    /**
+     * Rebuild the buckets with a new length.
+     *
+     * @param length
+     *            the new number of buckets, a power of 2
+     */
+    private void rehash(int length) {
+        DirectMemory.free(this.buckets);
+        this.buckets = newBuckets(length);
+        this.bucketCount = length;
+        int mask = length - 1;
+        for (int index = 0; index < this.size; index++) {
+            int bucket = mix(this.field(index, HASH)) & mask;
+            while (this.buckets.getInt(INT_BYTES * bucket) != EMPTY) {
+                bucket = (bucket + 1) & mask;
+            }
+            this.buckets.putInt(INT_BYTES * bucket, index);
+        }
+    }
+
+}
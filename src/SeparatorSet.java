@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntPredicate;
+
+/**
+ * Compiled set of the characters that separate words. Membership of every
+ * char of the Basic Multilingual Plane is decided once, when the set is
+ * built, and stored in a bit table; supplementary code points fall back to
+ * the rule the set was built from. Checking a char is a single table lookup,
+ * with no boxing and no scanning.
+ *
+ * <p>
+ * A set is either built from a list of separator chars with
+ * {@link #of(CharSequence)} or is one of the presets returned by
+ * {@link #forName(String)}:
+ * <ul>
+ * <li>{@code default}: {@link TagcloudGenerator#CHAR_SEPARATOR}</li>
+ * <li>{@code punctuation}: ASCII whitespace and ASCII punctuation</li>
+ * <li>{@code non-letters}: everything that is not a letter</li>
+ * <li>{@code unicode}: Unicode whitespace and Unicode punctuation</li>
+ * </ul>
+ * A set is immutable and may be shared between threads.
+ *
+ * @author Lucas Wu
+ */
+public final class SeparatorSet {
+
+    /**
+     * ASCII punctuation chars.
+     */
+    private static final String ASCII_PUNCTUATION = "!\"#$%&'()*+,-./:;<=>?@"
+            + "[\\]^_`{|}~";
+
+    /**
+     * ASCII whitespace chars.
+     */
+    private static final String ASCII_WHITESPACE = " \t\n\u000B\f\r";
+
+    /**
+     * Number of bits in a word of the table.
+     */
+    private static final int BITS = 64;
+
+    /**
+     * Number of chars in the Basic Multilingual Plane.
+     */
+    private static final int BMP_SIZE = 0x10000;
+
+    /**
+     * The {@code default} preset.
+     */
+    public static final SeparatorSet DEFAULT = of(
+            TagcloudGenerator.CHAR_SEPARATOR);
+
+    /**
+     * One bit per BMP char, set if the char is a separator.
+     */
+    private final long[] table;
+
+    /**
+     * Decides whether a supplementary code point is a separator.
+     */
+    private final IntPredicate supplementary;
+
+    /**
+     * Whether every separator is an ASCII char.
+     */
+    private final boolean asciiOnly;
+
+    /**
+     * Constructor.
+     *
+     * @param rule
+     *            decides whether a code point is a separator
+     */
+    private SeparatorSet(IntPredicate rule) {
+        this.table = new long[BMP_SIZE / BITS];
+        boolean ascii = true;
+        for (int c = 0; c < BMP_SIZE; c++) {
+            if (rule.test(c)) {
+                this.table[c / BITS] |= 1L << c;
+                ascii = ascii && c < 0x80;
+            }
+        }
+        this.supplementary = rule;
+        this.asciiOnly = ascii;
+    }
+
+    /**
+     * Build the set whose separators are exactly the code points of
+     * {@code separators}.
+     *
+     * @param separators
+     *            the separator chars
+     * @return the set
+     */
+    public static SeparatorSet of(CharSequence separators) {
+        assert separators != null : "Violation of: separators is not null";
+        int[] codePoints = separators.codePoints().sorted().distinct()
+                .toArray();
+        return new SeparatorSet(
+                c -> Arrays.binarySearch(codePoints, c) >= 0);
+    }
+
+    /**
+     * Reports the preset with the given name: {@code default},
+     * {@code punctuation}, {@code non-letters} or {@code unicode}.
+     *
+     * @param name
+     *            name of the preset, ignoring case
+     * @return the preset
+     * @throws IllegalArgumentException
+     *             if there is no preset with that name
+     */
+    public static SeparatorSet forName(String name) {
+        assert name != null : "Violation of: name is not null";
+        SeparatorSet result;
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "default":
+                result = DEFAULT;
+                break;
+            case "punctuation":
+                result = of(ASCII_WHITESPACE + ASCII_PUNCTUATION);
+                break;
+            case "non-letters":
+                result = new SeparatorSet(c -> !Character.isLetter(c));
+                break;
+            case "unicode":
+                result = new SeparatorSet(SeparatorSet::isUnicodeSeparator);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown separator preset: " + name);
+        }
+        return result;
+    }
+
+    /**
+     * Check if the given char is a separator.
+     *
+     * @param c
+     *            char to be checked
+     * @return if the given char is a separator
+     */
+    public boolean isSeparator(char c) {
+        return (this.table[c / BITS] & (1L << c)) != 0;
+    }
+
+    /**
+     * Check if the given code point is a separator.
+     *
+     * @param codePoint
+     *            code point to be checked
+     * @return if the given code point is a separator
+     */
+    public boolean isSeparator(int codePoint) {
+        boolean result;
+        if (codePoint < BMP_SIZE) {
+            result = (this.table[codePoint / BITS] & (1L << codePoint)) != 0;
+        } else {
+            result = this.supplementary.test(codePoint);
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether every separator is an ASCII char.
+     *
+     * @return true if no separator is outside ASCII
+     */
+    public boolean isAsciiOnly() {
+        return this.asciiOnly;
+    }
+
+    /**
+     * Check if the given code point is Unicode whitespace or punctuation.
+     *
+     * @param codePoint
+     *            code point to be checked
+     * @return if the code point is whitespace or punctuation
+     */
+    private static boolean isUnicodeSeparator(int codePoint) {
+        boolean result = Character.isWhitespace(codePoint)
+                || Character.isSpaceChar(codePoint);
+        switch (Character.getType(codePoint)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                result = true;
+                break;
+            default:
+                break;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,808 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Counts words in memory up to a budget of distinct capitalizations, and
+ * spills to disk past it, so that the vocabulary of a text may be larger
+ * than the heap.
+ *
+ * <p>
+ * When the in-memory {@link CaseVariantTable} holds {@code budget}
+ * capitalizations, it is written out as sorted runs and emptied. The runs
+ * are hash-partitioned by lower-case word, so all capitalizations of a word
+ * land in the same partition, and each run is sorted by lower-case word,
+ * then capitalization. {@link #top(int)} merges the runs of each partition
+ * with a k-way merge, sums the counts, picks the capitalization to show by
+ * the same rule as {@link CaseVariantTable}, and streams every word into a
+ * {@link TopWords}; only one word per run is in memory while merging. A
+ * partition with more than {@value #FAN_IN} runs is first merged in passes,
+ * {@value #FAN_IN} runs at a time, into longer runs, so that the number of
+ * files open and of buffers held stays bounded however many spills there
+ * were.
+ *
+ * <p>
+ * If nothing was spilled, the in-memory table is used as is. Run files live
+ * in a temporary directory that {@link #close()} deletes.
+ *
+ * @author Lucas Wu
+ */
+public final class SpillingCounter implements WordSink, AutoCloseable {
+
+    /**
+     * Bytes of buffer per run file.
+     */
+    private static final int FILE_BUFFER = 1 << 16;
+
+    /**
+     * Most runs merged at once.
+     */
+    static final int FAN_IN = 64;
+
+    /**
+     * Order of records in a run: lower-case word, then capitalization.
+     */
+    private static final Comparator<Run> RUN_ORDER = Comparator
+            .comparing((Run run) -> run.folded).thenComparing(run -> run.word);
+
+    /**
+     * Where the temporary directory is created.
+     */
+    private final Path tempRoot;
+
+    /**
+     * Number of capitalizations held in memory before spilling.
+     */
+    private final int budget;
+
+    /**
+     * Number of partitions of each spill.
+     */
+    private final int partitions;
+
+    /**
+     * Makes the in-memory tables.
+     */
+    private final Supplier<CaseVariantTable> tables;
+
+    /**
+     * The in-memory table.
+     */
+    private CaseVariantTable table;
+
+    /**
+     * Directory of the run files, or null before the first spill.
+     */
+    private Path directory;
+
+    /**
+     * Number of spills so far.
+     */
+    private int spills;
+
+    /**
+     * Number of runs written by merge passes so far.
+     */
+    private int merged;
+
+    /**
+     * Constructor.
+     *
+     * @param tempRoot
+     *            where the temporary directory is created
+     * @param budget
+     *            number of capitalizations held in memory before spilling
+     * @param partitions
+     *            number of partitions of each spill
+     * @param tables
+     *            makes the in-memory tables
+     */
+    public SpillingCounter(Path tempRoot, int budget, int partitions,
+            Supplier<CaseVariantTable> tables) {
+        assert budget > 0 : "Violation of: budget > 0";
+        assert partitions > 0 : "Violation of: partitions > 0";
+        this.tempRoot = tempRoot;
+        this.budget = budget;
+        this.partitions = partitions;
+        this.tables = tables;
+        this.table = tables.get();
+    }
+
+    /**
+     * Add one occurrence of a word, spilling the in-memory table if it
+     * reaches the budget.
+     *
+     * @throws UncheckedIOException
+     *             if the runs cannot be written
+     */
+    @Override
+    public void add(char[] text, int start, int end) {
+        this.table.add(text, start, end);
+        if (this.table.variantCount() >= this.budget) {
+            try {
+                this.spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reports the number of times the in-memory table was spilled.
+     *
+     * @return the number of spills
+     */
+    public int spillCount() {
+        return this.spills;
+    }
+
+    /**
+     * Merge everything counted and select the N highest-ranked words.
+     *
+     * @param n
+     *            the number of words to keep
+     * @return the selected words
+     * @throws IOException
+     *             if the runs cannot be written or read
+     */
+    public WordCounts top(int n) throws IOException {
+        WordCounts result = this.table;
+        if (this.spills > 0) {
+            if (this.table.variantCount() > 0) {
+                this.spill();
+            }
+            TopWords top = new TopWords(n);
+            for (int p = 0; p < this.partitions; p++) {
+                this.merge(p, top);
+            }
+            result = new Selected(top.toList());
+        }
+        return result;
+    }
+
+    /**
+     * Free the in-memory table and delete the run files.
+     *
+     * @throws IOException
+     *             if the run files cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        this.table.free();
+        if (this.directory != null) {
+            try (DirectoryStream<Path> files = Files
+                    .newDirectoryStream(this.directory)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(this.directory);
+            this.directory = null;
+        }
+    }
+
+    /**
+     * Write the in-memory table as one sorted run per partition, and start
+     * a new table.
+     *
+     * @throws IOException
+     *             if the runs cannot be written
+     */
+    private void spill() throws IOException {
+        if (this.directory == null) {
+            this.directory = Files.createTempDirectory(this.tempRoot,
+                    "tagcloud-spill");
+        }
+        CaseVariantTable words = this.table;
+        int count = words.variantCount();
+        /*
+         * One lower-case String per group and one String per capitalization,
+         * made once; the sort compares those through an int index array.
+         */
+        String[] folded = new String[words.size()];
+        String[] variant = new String[count];
+        int[] order = new int[count];
+        for (int v = 0; v < count; v++) {
+            int group = words.groupOf(v);
+            if (folded[group] == null) {
+                folded[group] = words.foldedWord(v);
+            }
+            variant[v] = words.variantWord(v);
+            order[v] = v;
+        }
+        sort(order, (a, b) -> {
+            int c = folded[words.groupOf(a)]
+                    .compareTo(folded[words.groupOf(b)]);
+            if (c == 0) {
+                c = variant[a].compareTo(variant[b]);
+            }
+            return c;
+        });
+
+        DataOutputStream[] runs = new DataOutputStream[this.partitions];
+        try {
+            for (int v : order) {
+                String word = folded[words.groupOf(v)];
+                int p = this.partition(word);
+                if (runs[p] == null) {
+                    runs[p] = newRun(this.runFile(this.spills, p));
+                }
+                writeRecord(runs[p], word, variant[v], words.variantCount(v),
+                        (long) this.spills << Integer.SIZE | v);
+            }
+        } finally {
+            for (DataOutputStream run : runs) {
+                if (run != null) {
+                    run.close();
+                }
+            }
+        }
+
+        this.spills++;
+        words.free();
+        this.table = this.tables.get();
+    }
+
+    /**
+     * Merge the runs of one partition into {@code top}, first merging them
+     * into fewer, longer runs while there are more than {@link #FAN_IN}.
+     *
+     * @param p
+     *            the partition
+     * @param top
+     *            receives every word of the partition
+     * @throws IOException
+     *             if the runs cannot be written or read
+     */
+    private void merge(int p, TopWords top) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        for (int s = 0; s < this.spills; s++) {
+            Path file = this.runFile(s, p);
+            if (Files.exists(file)) {
+                runs.add(file);
+            }
+        }
+        while (runs.size() > FAN_IN) {
+            List<Path> longer = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += FAN_IN) {
+                List<Path> batch = runs.subList(i,
+                        Math.min(i + FAN_IN, runs.size()));
+                if (batch.size() == 1) {
+                    longer.add(batch.get(0));
+                } else {
+                    Path file = this.directory.resolve(
+                            "merged-" + this.merged + "-" + p + ".bin");
+                    this.merged++;
+                    try (RunWriter out = new RunWriter(newRun(file))) {
+                        mergeRuns(batch, out);
+                    }
+                    for (Path run : batch) {
+                        Files.delete(run);
+                    }
+                    longer.add(file);
+                }
+            }
+            runs = longer;
+        }
+
+        Group group = new Group();
+        mergeRuns(runs, (folded, word, count, sequence) -> {
+            if (!folded.equals(group.folded)) {
+                group.offerTo(top);
+                group.start(folded);
+            }
+            group.add(word, count, sequence);
+        });
+        group.offerTo(top);
+    }
+
+    /**
+     * Merge runs with a k-way merge, passing their records to {@code out} in
+     * run order.
+     *
+     * @param files
+     *            the run files
+     * @param out
+     *            receives the records
+     * @throws IOException
+     *             if the runs cannot be read, or {@code out} cannot write
+     */
+    private static void mergeRuns(List<Path> files, Records out)
+            throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>(RUN_ORDER);
+        List<Run> opened = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                Run run = new Run(file);
+                opened.add(run);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                out.add(run.folded, run.word, run.count, run.sequence);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+        } finally {
+            for (Run run : opened) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * Sort an array of indices, without boxing them. The sort is a bottom-up
+     * merge sort.
+     *
+     * @param order
+     *            the indices
+     * @param compare
+     *            compares two indices, as {@link Comparator#compare}
+     */
+    private static void sort(int[] order, IntBinaryOperator compare) {
+        int[] from = order;
+        int[] to = new int[order.length];
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int lo = 0; lo < order.length; lo += 2 * width) {
+                int mid = Math.min(lo + width, order.length);
+                int hi = Math.min(lo + 2 * width, order.length);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (j >= hi || (i < mid
+                            && compare.applyAsInt(from[i], from[j]) <= 0)) {
+                        to[k] = from[i];
+                        i++;
+                    } else {
+                        to[k] = from[j];
+                        j++;
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, order.length);
+        }
+    }
+
+    /**
+     * Reports the partition of a lower-case word.
+     *
+     * @param folded
+     *            the lower-case word
+     * @return the partition
+     */
+    private int partition(String folded) {
+        int h = folded.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), this.partitions);
+    }
+
+    /**
+     * Reports the run file of a spill and a partition.
+     *
+     * @param spill
+     *            the spill
+     * @param p
+     *            the partition
+     * @return the file
+     */
+    private Path runFile(int spill, int p) {
+        return this.directory.resolve("run-" + spill + "-" + p + ".bin");
+    }
+
+    /**
+     * Open a run file for writing.
+     *
+     * @param file
+     *            the run file
+     * @return the stream
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    private static DataOutputStream newRun(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file), FILE_BUFFER));
+    }
+
+    /**
+     * Write a record of a run.
+     *
+     * @param out
+     *            the stream
+     * @param folded
+     *            the lower-case word
+     * @param word
+     *            the capitalization
+     * @param count
+     *            its count
+     * @param sequence
+     *            its first appearance, as the spill and the index in it
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    private static void writeRecord(DataOutputStream out, String folded,
+            String word, int count, long sequence) throws IOException {
+        writeString(out, folded);
+        writeString(out, word);
+        out.writeInt(count);
+        out.writeLong(sequence);
+    }
+
+    /**
+     * Write a string as its length and its chars.
+     *
+     * @param out
+     *            the stream
+     * @param s
+     *            the string
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /**
+     * Receives the records of runs being merged.
+     */
+    private interface Records {
+
+        /**
+         * Take a record.
+         *
+         * @param folded
+         *            the lower-case word
+         * @param word
+         *            the capitalization
+         * @param count
+         *            its count
+         * @param sequence
+         *            its first appearance
+         * @throws IOException
+         *             if the record cannot be written
+         */
+        void add(String folded, String word, int count, long sequence)
+                throws IOException;
+
+    }
+
+    /**
+     * Writes merged records to a longer run, the records of one
+     * capitalization summed into one.
+     */
+    private static final class RunWriter implements Records, AutoCloseable {
+
+        /**
+         * The run file.
+         */
+        private final DataOutputStream out;
+
+        /**
+         * Lower-case word of the pending record, or null if none.
+         */
+        private String folded;
+
+        /**
+         * Capitalization of the pending record.
+         */
+        private String word;
+
+        /**
+         * Count of the pending record.
+         */
+        private int count;
+
+        /**
+         * First appearance of the pending record.
+         */
+        private long sequence;
+
+        /**
+         * Constructor.
+         *
+         * @param out
+         *            the run file
+         */
+        RunWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void add(String newFolded, String newWord, int newCount,
+                long newSequence) throws IOException {
+            if (newWord.equals(this.word) && newFolded.equals(this.folded)) {
+                this.count += newCount;
+                this.sequence = Math.min(this.sequence, newSequence);
+            } else {
+                this.flush();
+                this.folded = newFolded;
+                this.word = newWord;
+                this.count = newCount;
+                this.sequence = newSequence;
+            }
+        }
+
+        /**
+         * Write the pending record, if any.
+         *
+         * @throws IOException
+         *             if the run cannot be written
+         */
+        private void flush() throws IOException {
+            if (this.folded != null) {
+                writeRecord(this.out, this.folded, this.word, this.count,
+                        this.sequence);
+                this.folded = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.flush();
+            } finally {
+                this.out.close();
+            }
+        }
+
+    }
+
+    /**
+     * Reader of a run file, positioned on one record.
+     */
+    private static final class Run implements AutoCloseable {
+
+        /**
+         * The run file.
+         */
+        private final DataInputStream in;
+
+        /**
+         * Lower-case word of the current record.
+         */
+        private String folded;
+
+        /**
+         * Capitalization of the current record.
+         */
+        private String word;
+
+        /**
+         * Count of the current record.
+         */
+        private int count;
+
+        /**
+         * Order in which the capitalization of the current record first
+         * appeared in the text.
+         */
+        private long sequence;
+
+        /**
+         * Constructor.
+         *
+         * @param file
+         *            the run file
+         * @throws IOException
+         *             if the file cannot be opened
+         */
+        Run(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file), FILE_BUFFER));
+        }
+
+        /**
+         * Move to the next record.
+         *
+         * @return false if the run is exhausted
+         * @throws IOException
+         *             if the file cannot be read
+         */
+        boolean next() throws IOException {
+            boolean result = true;
+            try {
+                this.folded = this.readString();
+            } catch (EOFException e) {
+                result = false;
+            }
+            if (result) {
+                this.word = this.readString();
+                this.count = this.in.readInt();
+                this.sequence = this.in.readLong();
+            }
+            return result;
+        }
+
+        /**
+         * Read a string written by {@link SpillingCounter#writeString}.
+         *
+         * @return the string
+         * @throws IOException
+         *             if the file cannot be read
+         */
+        private String readString() throws IOException {
+            char[] chars = new char[this.in.readInt()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = this.in.readChar();
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+
+    }
+
+    /**
+     * Capitalizations of one lower-case word being merged.
+     */
+    private static final class Group {
+
+        /**
+         * The lower-case word, or null before the first.
+         */
+        private String folded;
+
+        /**
+         * Total count of the word.
+         */
+        private int total;
+
+        /**
+         * Capitalization being merged.
+         */
+        private String word;
+
+        /**
+         * Count of the capitalization being merged.
+         */
+        private int count;
+
+        /**
+         * First appearance of the capitalization being merged.
+         */
+        private long sequence;
+
+        /**
+         * Capitalization to show so far.
+         */
+        private String best;
+
+        /**
+         * Count of {@link #best}.
+         */
+        private int bestCount;
+
+        /**
+         * First appearance of {@link #best}.
+         */
+        private long bestSequence;
+
+        /**
+         * Start merging a new lower-case word.
+         *
+         * @param newFolded
+         *            the lower-case word
+         */
+        void start(String newFolded) {
+            this.folded = newFolded;
+            this.total = 0;
+            this.word = null;
+            this.best = null;
+        }
+
+        /**
+         * Add a record of the current lower-case word. Records of the same
+         * capitalization are consecutive.
+         *
+         * @param newWord
+         *            the capitalization
+         * @param newCount
+         *            its count in the record
+         * @param newSequence
+         *            its first appearance in the record
+         */
+        void add(String newWord, int newCount, long newSequence) {
+            if (!newWord.equals(this.word)) {
+                this.endWord();
+                this.word = newWord;
+                this.count = 0;
+                this.sequence = Long.MAX_VALUE;
+            }
+            this.total += newCount;
+            this.count += newCount;
+            this.sequence = Math.min(this.sequence, newSequence);
+        }
+
+        /**
+         * Offer the merged word, if any, to {@code top}.
+         *
+         * @param top
+         *            the selection
+         */
+        void offerTo(TopWords top) {
+            if (this.folded != null) {
+                this.endWord();
+                top.offer(new WordCount(this.best, this.total));
+            }
+        }
+
+        /**
+         * Finish merging the current capitalization.
+         */
+        private void endWord() {
+            if (this.word != null && (this.best == null
+                    || this.count > this.bestCount
+                    || (this.count == this.bestCount
+                            && this.sequence < this.bestSequence))) {
+                this.best = this.word;
+                this.bestCount = this.count;
+                this.bestSequence = this.sequence;
+            }
+            this.word = null;
+        }
+
+    }
+
+    /**
+     * Words selected from the merged runs.
+     */
+    private static final class Selected implements WordCounts {
+
+        /**
+         * The words.
+         */
+        private final List<WordCount> words;
+
+        /**
+         * Constructor.
+         *
+         * @param words
+         *            the words
+         */
+        Selected(List<WordCount> words) {
+            this.words = words;
+        }
+
+        @Override
+        public int size() {
+            return this.words.size();
+        }
+
+        @Override
+        public String word(int index) {
+            return this.words.get(index).getWord();
+        }
+
+        @Override
+        public int count(int index) {
+            return this.words.get(index).getCount();
+        }
+
+    }
+
+}
@@ -0,0 +1,315 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiled set of words that are not counted into the tag cloud. Words
+ * shorter than a minimum length are always stop words.
+ *
+ * <p>
+ * The words are stored in one char pool and found through an open-addressing
+ * hash table, and a bit mask of the word lengths in the list rejects most
+ * candidates before hashing. A candidate is checked directly as a slice of
+ * the caller's buffer, so no String is created for it. A set is immutable and
+ * may be shared between threads.
+ *
+ * <p>
+ * Stop-word files are UTF-8, one word per line; blank lines and lines
+ * starting with {@code #} are ignored.
+ *
+ * @author Lucas Wu
+ */
+public final class StopWords {
+
+    /**
+     * Marks an unused bucket.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * Lengths at least this large share the last bit of the length mask.
+     */
+    private static final int LONG_WORD = 63;
+
+    /**
+     * Words that are not counted by default.
+     */
+    public static final StopWords DEFAULT = of(
+            Arrays.asList(TagcloudGenerator.SIMPLE_WORD), 2, false);
+
+    /**
+     * Chars of all words, back to back.
+     */
+    private final char[] pool;
+
+    /**
+     * Offset in the pool of each word.
+     */
+    private final int[] offsets;
+
+    /**
+     * Length of each word.
+     */
+    private final int[] lengths;
+
+    /**
+     * Hash buckets holding word indexes, or {@link #EMPTY}.
+     */
+    private final int[] buckets;
+
+    /**
+     * Bit {@code i} is set if a word of length {@code i} is in the list (the
+     * last bit stands for all long words).
+     */
+    private final long lengthMask;
+
+    /**
+     * Words shorter than this are stop words.
+     */
+    private final int minLength;
+
+    /**
+     * Whether words match regardless of case.
+     */
+    private final boolean ignoreCase;
+
+    /**
+     * Constructor.
+     *
+     * @param words
+     *            the distinct stop words, already lower case if
+     *            {@code ignoreCase}
+     * @param minLength
+     *            words shorter than this are stop words
+     * @param ignoreCase
+     *            whether words match regardless of case
+     */
+    private StopWords(List<String> words, int minLength,
+            boolean ignoreCase) {
+        this.minLength = minLength;
+        this.ignoreCase = ignoreCase;
+        int chars = 0;
+        for (String word : words) {
+            chars += word.length();
+        }
+        this.pool = new char[chars];
+        this.offsets = new int[words.size()];
+        this.lengths = new int[words.size()];
+        int length = Integer.highestOneBit(Math.max(1, 2 * words.size())) * 2;
+        this.buckets = new int[length];
+        Arrays.fill(this.buckets, EMPTY);
+
+        long mask = 0;
+        int used = 0;
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            word.getChars(0, word.length(), this.pool, used);
+            this.offsets[i] = used;
+            this.lengths[i] = word.length();
+            int bucket = this.hash(this.pool, used, used + word.length())
+                    & (length - 1);
+            while (this.buckets[bucket] != EMPTY) {
+                bucket = (bucket + 1) & (length - 1);
+            }
+            this.buckets[bucket] = i;
+            mask |= 1L << Math.min(word.length(), LONG_WORD);
+            used += word.length();
+        }
+        this.lengthMask = mask;
+    }
+
+    /**
+     * Build a stop-word set from a list of words.
+     *
+     * @param words
+     *            the stop words
+     * @param minLength
+     *            words shorter than this are stop words
+     * @param ignoreCase
+     *            whether words match regardless of case
+     * @return the set
+     */
+    public static StopWords of(Iterable<? extends CharSequence> words,
+            int minLength, boolean ignoreCase) {
+        assert words != null : "Violation of: words is not null";
+        Set<String> distinct = new LinkedHashSet<>();
+        for (CharSequence word : words) {
+            String w = word.toString();
+            if (ignoreCase) {
+                w = fold(w);
+            }
+            if (!w.isEmpty()) {
+                distinct.add(w);
+            }
+        }
+        return new StopWords(new ArrayList<>(distinct), minLength,
+                ignoreCase);
+    }
+
+    /**
+     * Load a stop-word set from files.
+     *
+     * @param files
+     *            the stop-word files
+     * @param minLength
+     *            words shorter than this are stop words
+     * @param ignoreCase
+     *            whether words match regardless of case
+     * @return the set
+     * @throws IOException
+     *             file reading error
+     */
+    public static StopWords load(List<Path> files, int minLength,
+            boolean ignoreCase) throws IOException {
+        assert files != null : "Violation of: files is not null";
+        List<String> words = new ArrayList<>();
+        for (Path file : files) {
+            try (BufferedReader in = Files.newBufferedReader(file,
+                    StandardCharsets.UTF_8)) {
+                String line = in.readLine();
+                while (line != null) {
+                    String word = line.trim();
+                    if (!word.isEmpty() && word.charAt(0) != '#') {
+                        words.add(word);
+                    }
+                    line = in.readLine();
+                }
+            }
+        }
+        return of(words, minLength, ignoreCase);
+    }
+
+    /**
+     * Check if the word {@code text[start, end)} is a stop word.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @return if the word is a stop word
+     * @requires 0 <= start <= end <= |text|
+     */
+    public boolean contains(char[] text, int start, int end) {
+        int length = end - start;
+        if (length < this.minLength) {
+            return true;
+        }
+        if ((this.lengthMask & (1L << Math.min(length, LONG_WORD))) == 0) {
+            return false;
+        }
+        int mask = this.buckets.length - 1;
+        int bucket = this.hash(text, start, end) & mask;
+        int index = this.buckets[bucket];
+        while (index != EMPTY) {
+            if (this.matches(index, text, start, end)) {
+                return true;
+            }
+            bucket = (bucket + 1) & mask;
+            index = this.buckets[bucket];
+        }
+        return false;
+    }
+
+    /**
+     * Check if the given string is a stop word.
+     *
+     * @param word
+     *            the word to check
+     * @return if the word is a stop word
+     */
+    public boolean contains(String word) {
+        assert word != null : "Violation of: word is not null";
+        return this.contains(word.toCharArray(), 0, word.length());
+    }
+
+    /**
+     * Lower-case a word the way candidates are lower-cased, one char at a
+     * time.
+     *
+     * @param word
+     *            the word
+     * @return the word in lower case
+     */
+    private static String fold(String word) {
+        char[] chars = word.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Reports the char at {@code i}, lower-cased if case is ignored.
+     *
+     * @param text
+     *            buffer holding the char
+     * @param i
+     *            offset of the char
+     * @return the char to compare
+     */
+    private char charAt(char[] text, int i) {
+        char c = text[i];
+        if (this.ignoreCase) {
+            c = Character.toLowerCase(c);
+        }
+        return c;
+    }
+
+    /**
+     * Hash of {@code text[start, end)}, ignoring case if case is ignored.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char
+     * @param end
+     *            offset after the last char
+     * @return the hash
+     */
+    private int hash(char[] text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + this.charAt(text, i);
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Reports whether stop word {@code index} equals {@code text[start,
+     * end)}.
+     *
+     * @param index
+     *            index of the stop word
+     * @param text
+     *            buffer holding the candidate
+     * @param start
+     *            offset of the first char
+     * @param end
+     *            offset after the last char
+     * @return true if the words are equal
+     */
+    private boolean matches(int index, char[] text, int start, int end) {
+        int length = end - start;
+        if (this.lengths[index] != length) {
+            return false;
+        }
+        int offset = this.offsets[index];
+        for (int i = 0; i < length; i++) {
+            if (this.pool[offset + i] != this.charAt(text, start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,1061 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Places the words of a tag cloud on a canvas, for {@link SvgRenderer}.
+ *
+ * <p>
+ * Words are placed from the highest count to the lowest, each at the first
+ * free spot along an Archimedean spiral out of the middle of the canvas,
+ * with font sizes as in {@link TagcloudGenerator#fontSize}. The canvas is a
+ * bitmap of {@value #CELL}-pixel cells, one bit per cell and 64 cells per
+ * {@code long}, in which each word placed sets the cells of its box: whether
+ * a box is free is then a few {@code long} tests per row it covers, however
+ * many words are already placed. The points of the spiral are computed once
+ * per layout, in cells, and shared by all words; each word goes round it in
+ * one of four directions, drawn from the seed and its index in the list, so
+ * the same words and seed always give the same layout. Points where no box
+ * fits any more are skipped for good, and a box resumes the search where
+ * the last box of its size going the same way stopped, so the words placed
+ * are not searched through again by every word.
+ *
+ * <p>
+ * With a parallelism above 1, the free spots of the next few words are
+ * searched for on several threads at once, and the words placed in rank
+ * order, each checked against the words placed before it in its round (see
+ * {@link #placeInRounds}); the layout is the same, byte for byte, as with
+ * one thread.
+ *
+ * <p>
+ * The size of the box of a word is estimated from typical advances of a
+ * sans-serif font rather than measured, so that a layout does not depend on
+ * the fonts installed. The canvas has twice the area of all the boxes, in
+ * proportions 4:3; a word that finds no free spot on it is left out.
+ *
+ * @author Lucas Wu
+ */
+public final class SvgLayout {
+
+    /**
+     * Pixels per cell of the bitmap.
+     */
+    static final int CELL = 2;
+
+    /**
+     * Area of the canvas, per area of the boxes of the words.
+     */
+    private static final double FILL = 2.0;
+
+    /**
+     * Width of the canvas, per {@link #ASPECT_HEIGHT}.
+     */
+    private static final int ASPECT_WIDTH = 4;
+
+    /**
+     * Height of the canvas, per {@link #ASPECT_WIDTH}.
+     */
+    private static final int ASPECT_HEIGHT = 3;
+
+    /**
+     * Smallest width of the canvas, in cells.
+     */
+    private static final int MIN_COLUMNS = 200;
+
+    /**
+     * Space around the text of a word in its box, in pixels on each side.
+     */
+    private static final int PADDING = 1;
+
+    /**
+     * Height above the baseline of a line of text, in ems.
+     */
+    private static final double ASCENT = 0.8;
+
+    /**
+     * Height of a line of text, in ems.
+     */
+    private static final double LINE_HEIGHT = 1.1;
+
+    /**
+     * Advance of narrow chars, in ems.
+     */
+    private static final double NARROW = 0.3;
+
+    /**
+     * Advance of wide chars, in ems.
+     */
+    private static final double WIDE = 0.85;
+
+    /**
+     * Advance of capitals, in ems.
+     */
+    private static final double CAPITAL = 0.68;
+
+    /**
+     * Advance of other chars, in ems.
+     */
+    private static final double REGULAR = 0.56;
+
+    /**
+     * Advance of ideographs and other full-width chars, in ems.
+     */
+    private static final double FULL_WIDTH = 1.0;
+
+    /**
+     * First full-width char: the CJK radicals.
+     */
+    private static final char FIRST_FULL_WIDTH = '\u2E80';
+
+    /**
+     * Chars with a narrow advance.
+     */
+    private static final String NARROW_CHARS = "fijlrtI!.,:;'|";
+
+    /**
+     * Chars with a wide advance.
+     */
+    private static final String WIDE_CHARS = "mwMW";
+
+    /**
+     * Directions a word goes round the spiral in.
+     */
+    private static final int DIRECTIONS = 4;
+
+    /**
+     * Words searched for per thread in each round of a parallel layout.
+     */
+    private static final int WORDS_PER_THREAD = 4;
+
+    /**
+     * Where the words of a cloud are placed.
+     */
+    public static final class Placement {
+
+        /**
+         * Width of the canvas, in pixels.
+         */
+        private final int width;
+
+        /**
+         * Height of the canvas, in pixels.
+         */
+        private final int height;
+
+        /**
+         * Font size of each word.
+         */
+        private final int[] fontSize;
+
+        /**
+         * Middle of the text of each word, in pixels from the left.
+         */
+        private final int[] x;
+
+        /**
+         * Baseline of the text of each word, in pixels from the top; -1 if
+         * the word is left out.
+         */
+        private final int[] y;
+
+        /**
+         * Constructor.
+         *
+         * @param width
+         *            width of the canvas
+         * @param height
+         *            height of the canvas
+         * @param words
+         *            number of words
+         */
+        private Placement(int width, int height, int words) {
+            this.width = width;
+            this.height = height;
+            this.fontSize = new int[words];
+            this.x = new int[words];
+            this.y = new int[words];
+            Arrays.fill(this.y, -1);
+        }
+
+        /**
+         * Reports the width of the canvas.
+         *
+         * @return the width in pixels
+         */
+        public int width() {
+            return this.width;
+        }
+
+        /**
+         * Reports the height of the canvas.
+         *
+         * @return the height in pixels
+         */
+        public int height() {
+            return this.height;
+        }
+
+        /**
+         * Reports whether a word is on the canvas.
+         *
+         * @param word
+         *            the index of the word in the list laid out
+         * @return false if no free spot was found for it
+         */
+        public boolean placed(int word) {
+            return this.y[word] >= 0;
+        }
+
+        /**
+         * Reports the font size of a word.
+         *
+         * @param word
+         *            the index of the word in the list laid out
+         * @return the font size in pixels
+         */
+        public int fontSize(int word) {
+            return this.fontSize[word];
+        }
+
+        /**
+         * Reports the middle of the text of a word.
+         *
+         * @param word
+         *            the index of the word in the list laid out
+         * @return pixels from the left of the canvas
+         * @requires placed(word)
+         */
+        public int x(int word) {
+            return this.x[word];
+        }
+
+        /**
+         * Reports the baseline of the text of a word.
+         *
+         * @param word
+         *            the index of the word in the list laid out
+         * @return pixels from the top of the canvas
+         * @requires placed(word)
+         */
+        public int y(int word) {
+            return this.y[word];
+        }
+
+    }
+
+    /**
+     * Bitmap of the cells taken by the words placed.
+     */
+    private static final class Bitmap {
+
+        /**
+         * Number of columns.
+         */
+        private final int columns;
+
+        /**
+         * Number of rows.
+         */
+        private final int rows;
+
+        /**
+         * Number of longs per row.
+         */
+        private final int stride;
+
+        /**
+         * The bits, row after row.
+         */
+        private final long[] bits;
+
+        /**
+         * Constructor.
+         *
+         * @param columns
+         *            number of columns
+         * @param rows
+         *            number of rows
+         */
+        Bitmap(int columns, int rows) {
+            this.columns = columns;
+            this.rows = rows;
+            this.stride = (columns + Long.SIZE - 1) / Long.SIZE;
+            this.bits = new long[this.stride * rows];
+        }
+
+        /**
+         * Reports whether a box is on the bitmap and has no cell taken.
+         *
+         * @param left
+         *            first column of the box
+         * @param top
+         *            first row of the box
+         * @param width
+         *            number of columns of the box
+         * @param height
+         *            number of rows of the box
+         * @return true if the box is free
+         */
+        boolean isFree(int left, int top, int width, int height) {
+            boolean result = left >= 0 && top >= 0
+                    && left + width <= this.columns
+                    && top + height <= this.rows;
+            int first = left / Long.SIZE;
+            int last = (left + width - 1) / Long.SIZE;
+            for (int row = top; result && row < top + height; row++) {
+                int base = row * this.stride;
+                for (int k = first; result && k <= last; k++) {
+                    result = (this.bits[base + k]
+                            & mask(k, left, width)) == 0;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Take the cells of a box.
+         *
+         * @param left
+         *            first column of the box
+         * @param top
+         *            first row of the box
+         * @param width
+         *            number of columns of the box
+         * @param height
+         *            number of rows of the box
+         * @requires isFree(left, top, width, height)
+         */
+        void fill(int left, int top, int width, int height) {
+            int first = left / Long.SIZE;
+            int last = (left + width - 1) / Long.SIZE;
+            for (int row = top; row < top + height; row++) {
+                int base = row * this.stride;
+                for (int k = first; k <= last; k++) {
+                    this.bits[base + k] |= mask(k, left, width);
+                }
+            }
+        }
+
+        /**
+         * Reports the bits of a long covered by a span of columns.
+         *
+         * @param k
+         *            the index of the long in its row
+         * @param left
+         *            first column of the span
+         * @param width
+         *            number of columns of the span, at least 1
+         * @return the bits of columns {@code left} to {@code left + width - 1}
+         *         in long {@code k}
+         */
+        private static long mask(int k, int left, int width) {
+            int from = Math.max(left - k * Long.SIZE, 0);
+            int to = Math.min(left + width - k * Long.SIZE, Long.SIZE);
+            long high = -1L;
+            if (to < Long.SIZE) {
+                high = (1L << to) - 1;
+            }
+            return high & (-1L << from);
+        }
+
+    }
+
+    /**
+     * Seed of the directions of the words.
+     */
+    private final long seed;
+
+    /**
+     * Number of threads searching for free spots.
+     */
+    private final int parallelism;
+
+    /**
+     * Constructor of a sequential layout.
+     *
+     * @param seed
+     *            seed of the directions the words go round the spiral in
+     */
+    public SvgLayout(long seed) {
+        this(seed, 1);
+    }
+
+    /**
+     * Constructor. The layout is the same whatever the parallelism.
+     *
+     * @param seed
+     *            seed of the directions the words go round the spiral in
+     * @param parallelism
+     *            number of threads searching for free spots
+     */
+    public SvgLayout(long seed, int parallelism) {
+        assert parallelism > 0 : "Violation of: parallelism > 0";
+        this.seed = seed;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reports the seed of the layout.
+     *
+     * @return the seed
+     */
+    public long seed() {
+        return this.seed;
+    }
+
+    /**
+     * Place the words of a cloud. {@code words} is not changed.
+     *
+     * @param words
+     *            the words of the cloud
+     * @return where they are placed
+     */
+    public Placement layout(List<WordCount> words) {
+        assert words != null : "Violation of: words is not null";
+        int n = words.size();
+        int highest = Integer.MIN_VALUE;
+        int lowest = Integer.MAX_VALUE;
+        for (WordCount entry : words) {
+            highest = Math.max(highest, entry.getCount());
+            lowest = Math.min(lowest, entry.getCount());
+        }
+
+        int[] fontSize = new int[n];
+        int[] boxWidth = new int[n];
+        int[] boxHeight = new int[n];
+        double area = 0;
+        int widest = 0;
+        int narrowest = Integer.MAX_VALUE;
+        int lowestBox = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            WordCount entry = words.get(i);
+            fontSize[i] = TagcloudGenerator.fontSize(entry.getCount(), lowest,
+                    highest);
+            boxWidth[i] = cells(advance(entry.getWord()) * fontSize[i]);
+            boxHeight[i] = cells(LINE_HEIGHT * fontSize[i]);
+            area += (double) boxWidth[i] * boxHeight[i];
+            widest = Math.max(widest, boxWidth[i]);
+            narrowest = Math.min(narrowest, boxWidth[i]);
+            lowestBox = Math.min(lowestBox, boxHeight[i]);
+        }
+        int columns = Math.max(MIN_COLUMNS, widest + 2);
+        columns = Math.max(columns,
+                (int) Math.ceil(Math.sqrt(area * FILL * ASPECT_WIDTH
+                        / ASPECT_HEIGHT)));
+        int rows = columns * ASPECT_HEIGHT / ASPECT_WIDTH;
+
+        Placement result = new Placement(columns * CELL, rows * CELL, n);
+        System.arraycopy(fontSize, 0, result.fontSize, 0, n);
+        int[] direction = new int[n];
+        for (int i = 0; i < n; i++) {
+            direction[i] = this.direction(i);
+        }
+        Canvas canvas = new Canvas(result, boxWidth, boxHeight, direction,
+                new Spiral(columns, rows, narrowest, lowestBox));
+        int[] order = byRank(words);
+        if (this.parallelism == 1) {
+            for (int i : order) {
+                canvas.place(i, null);
+            }
+        } else {
+            this.placeInRounds(canvas, order);
+        }
+        return result;
+    }
+
+    /**
+     * Place words in rounds of a few per thread: the first free spot of each
+     * word of a round is searched for at the same time, on the cells taken
+     * at the start of the round, then the words are placed one at a time in
+     * rank order. Cells are only ever taken, so no spot before the one found
+     * is free when a word is placed either; if the spot found is still free,
+     * it is the one the sequential layout finds, and otherwise the search
+     * goes on from it, as it would have. Either way each word ends where
+     * {@link Canvas#place} alone would put it.
+     *
+     * @param canvas
+     *            the canvas
+     * @param order
+     *            the words, in the order to place them in
+     */
+    private void placeInRounds(Canvas canvas, int[] order) {
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            int round = this.parallelism * WORDS_PER_THREAD;
+            for (int from = 0; from < order.length; from += round) {
+                List<Callable<Speculation>> searches = new ArrayList<>();
+                for (int k = from; k < Math.min(from + round,
+                        order.length); k++) {
+                    int word = order[k];
+                    searches.add(() -> canvas.speculate(word));
+                }
+                for (Future<Speculation> search : pool.invokeAll(searches)) {
+                    Speculation speculation = search.get();
+                    canvas.place(speculation.word, speculation);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted laying out", e);
+        } catch (ExecutionException e) {
+            // searches throw nothing but errors
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reports the order words are placed in: highest count first, and words
+     * with the same count in the order of the list.
+     *
+     * @param words
+     *            the words
+     * @return the indexes of the words, in that order
+     */
+    private static int[] byRank(List<WordCount> words) {
+        Integer[] order = new Integer[words.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(
+                words.get(b).getCount(), words.get(a).getCount()));
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    /**
+     * Reports the direction a word goes round the spiral in.
+     *
+     * @param word
+     *            the index of the word
+     * @return 0 to 3: bit 0 mirrors left and right, bit 1 top and bottom
+     */
+    private int direction(int word) {
+        return new SplittableRandom(this.seed + word).nextInt(DIRECTIONS);
+    }
+
+    /**
+     * Reports the key of the boxes of a size going round the spiral in a
+     * direction. Cells are only ever taken, never freed, so a point that one
+     * such box did not fit at is no use to the next one: its search resumes
+     * after the point the last one stopped at.
+     *
+     * @param width
+     *            columns of the box
+     * @param height
+     *            rows of the box
+     * @param direction
+     *            the direction
+     * @return the key
+     */
+    private static Long shape(int width, int height, int direction) {
+        return ((long) width << Integer.SIZE) | ((long) height * DIRECTIONS)
+                | direction;
+    }
+
+    /**
+     * First free spot of a word on the cells taken at the start of a round,
+     * and the points found dead on the way.
+     */
+    private static final class Speculation {
+
+        /**
+         * The index of the word.
+         */
+        private final int word;
+
+        /**
+         * The point the word was found free at, -1 if none.
+         */
+        private int point = -1;
+
+        /**
+         * Points found dead.
+         */
+        private int[] dead = new int[DIRECTIONS];
+
+        /**
+         * Number of points found dead.
+         */
+        private int deadCount;
+
+        /**
+         * Constructor.
+         *
+         * @param word
+         *            the index of the word
+         */
+        Speculation(int word) {
+            this.word = word;
+        }
+
+        /**
+         * Record a point found dead.
+         *
+         * @param p
+         *            the index of the point
+         */
+        void addDead(int p) {
+            if (this.deadCount == this.dead.length) {
+                this.dead = Arrays.copyOf(this.dead, 2 * this.deadCount);
+            }
+            this.dead[this.deadCount] = p;
+            this.deadCount++;
+        }
+
+    }
+
+    /**
+     * Words being placed on a canvas.
+     */
+    private static final class Canvas {
+
+        /**
+         * Where the words are placed.
+         */
+        private final Placement result;
+
+        /**
+         * Columns of the box of each word.
+         */
+        private final int[] boxWidth;
+
+        /**
+         * Rows of the box of each word.
+         */
+        private final int[] boxHeight;
+
+        /**
+         * Direction each word goes round the spiral in.
+         */
+        private final int[] direction;
+
+        /**
+         * The spiral.
+         */
+        private final Spiral spiral;
+
+        /**
+         * The cells taken.
+         */
+        private final Bitmap bitmap;
+
+        /**
+         * Where to resume the search of each shape of box (see
+         * {@link SvgLayout#shape}).
+         */
+        private final Map<Long, Integer> resume = new HashMap<>();
+
+        /**
+         * Constructor.
+         *
+         * @param result
+         *            where the words are placed
+         * @param boxWidth
+         *            columns of the box of each word
+         * @param boxHeight
+         *            rows of the box of each word
+         * @param direction
+         *            direction each word goes round the spiral in
+         * @param spiral
+         *            the spiral
+         */
+        Canvas(Placement result, int[] boxWidth, int[] boxHeight,
+                int[] direction, Spiral spiral) {
+            this.result = result;
+            this.boxWidth = boxWidth;
+            this.boxHeight = boxHeight;
+            this.direction = direction;
+            this.spiral = spiral;
+            this.bitmap = new Bitmap(spiral.columns, spiral.rows);
+        }
+
+        /**
+         * Find the first free spot of a word without changing the canvas,
+         * so that many words can be searched for at the same time.
+         *
+         * @param word
+         *            the index of the word
+         * @return the spot, and the points found dead
+         */
+        Speculation speculate(int word) {
+            Speculation result = new Speculation(word);
+            result.point = this.spiral.search(this.bitmap, this.start(word),
+                    this.direction[word], this.boxWidth[word],
+                    this.boxHeight[word], result);
+            return result;
+        }
+
+        /**
+         * Place a word at its first free spot.
+         *
+         * @param word
+         *            the index of the word
+         * @param speculation
+         *            the first free spot of the word on fewer cells taken,
+         *            or null
+         */
+        void place(int word, Speculation speculation) {
+            int d = this.direction[word];
+            int width = this.boxWidth[word];
+            int height = this.boxHeight[word];
+            int at;
+            if (speculation == null) {
+                at = this.spiral.search(this.bitmap, this.start(word), d,
+                        width, height, null);
+            } else {
+                for (int k = 0; k < speculation.deadCount; k++) {
+                    this.spiral.kill(speculation.dead[k], d);
+                }
+                at = speculation.point;
+                if (at >= 0 && !this.bitmap.isFree(
+                        this.spiral.left(at, d, width),
+                        this.spiral.top(at, d, height), width, height)) {
+                    at = this.spiral.search(this.bitmap, at + 1, d, width,
+                            height, null);
+                }
+            }
+            Long shape = shape(width, height, d);
+            if (at < 0) {
+                this.resume.put(shape, this.spiral.size());
+            } else {
+                this.resume.put(shape, at + 1);
+                int left = this.spiral.left(at, d, width);
+                int top = this.spiral.top(at, d, height);
+                this.bitmap.fill(left, top, width, height);
+                this.result.x[word] = left * CELL + width * CELL / 2;
+                this.result.y[word] = top * CELL + PADDING + (int) Math
+                        .round(ASCENT * this.result.fontSize[word]);
+            }
+        }
+
+        /**
+         * Reports where the search of a word starts.
+         *
+         * @param word
+         *            the index of the word
+         * @return the index of the point
+         */
+        private int start(int word) {
+            return this.resume.getOrDefault(shape(this.boxWidth[word],
+                    this.boxHeight[word], this.direction[word]), 0);
+        }
+
+    }
+
+    /**
+     * Points of an Archimedean spiral out of the middle of a canvas, one cell
+     * apart and one cell further out each turn, that are on the canvas, until
+     * the spiral is past its corners. The spiral is stretched to the
+     * proportions of the canvas.
+     *
+     * <p>
+     * A box centered on a point contains the smallest box of the cloud
+     * centered on it, so once that smallest box no longer fits at a point,
+     * no box ever will: its cell is marked dead, and the point is skipped
+     * from then on through a table, for each direction, of the next point to
+     * try, with path compression. The filled middle of the canvas is gone
+     * through once rather than by every word.
+     */
+    private static final class Spiral {
+
+        /**
+         * Offsets of the points from the middle, in cells: dx, dy, dx, dy...
+         */
+        private final int[] points;
+
+        /**
+         * Number of points.
+         */
+        private final int size;
+
+        /**
+         * Columns of the canvas.
+         */
+        private final int columns;
+
+        /**
+         * Rows of the canvas.
+         */
+        private final int rows;
+
+        /**
+         * Columns of the narrowest box.
+         */
+        private final int minWidth;
+
+        /**
+         * Rows of the lowest box.
+         */
+        private final int minHeight;
+
+        /**
+         * For each direction, for each point, a point at or before the next
+         * one where the smallest box may still fit.
+         */
+        private final int[][] next = new int[DIRECTIONS][];
+
+        /**
+         * Cells the smallest box no longer fits centered on, whatever the
+         * direction they were found in.
+         */
+        private final Bitmap dead;
+
+        /**
+         * Constructor. Each turn is gone round in equal steps by rotating
+         * the previous point, with the sine and cosine of the step from
+         * {@link StrictMath}, so that the spiral is the same on every
+         * platform at two trigonometric calls per turn.
+         *
+         * @param columns
+         *            columns of the canvas
+         * @param rows
+         *            rows of the canvas
+         * @param minWidth
+         *            columns of the narrowest box
+         * @param minHeight
+         *            rows of the lowest box
+         */
+        Spiral(int columns, int rows, int minWidth, int minHeight) {
+            this.columns = columns;
+            this.rows = rows;
+            this.minWidth = minWidth;
+            this.minHeight = minHeight;
+            this.dead = new Bitmap(columns, rows);
+            double stretch = (double) columns / rows;
+            double limit = rows * Math.sqrt(2) / 2 + 1;
+            int halfWidth = columns / 2;
+            int halfHeight = rows / 2;
+            int[] result = new int[2 * columns * rows];
+            int length = 0;
+            int lastX = Integer.MIN_VALUE;
+            int lastY = Integer.MIN_VALUE;
+            for (int turn = 0; turn <= limit; turn++) {
+                int steps = (int) Math.ceil(2 * Math.PI * stretch
+                        * Math.max(turn, 1));
+                double step = 2 * Math.PI / steps;
+                double cosStep = StrictMath.cos(step);
+                double sinStep = StrictMath.sin(step);
+                double cos = 1;
+                double sin = 0;
+                for (int k = 0; k < steps; k++) {
+                    double r = turn + (double) k / steps;
+                    int dx = (int) Math.round(stretch * r * cos);
+                    int dy = (int) Math.round(r * sin);
+                    if ((dx != lastX || dy != lastY)
+                            && Math.abs(dx) <= halfWidth
+                            && Math.abs(dy) <= halfHeight) {
+                        if (length == result.length) {
+                            result = Arrays.copyOf(result, 2 * length);
+                        }
+                        result[length] = dx;
+                        result[length + 1] = dy;
+                        length += 2;
+                        lastX = dx;
+                        lastY = dy;
+                    }
+                    double rotated = cos * cosStep - sin * sinStep;
+                    sin = sin * cosStep + cos * sinStep;
+                    cos = rotated;
+                }
+            }
+            this.points = Arrays.copyOf(result, length);
+            this.size = length / 2;
+            for (int d = 0; d < DIRECTIONS; d++) {
+                this.next[d] = new int[this.size + 1];
+                for (int p = 0; p <= this.size; p++) {
+                    this.next[d][p] = p;
+                }
+            }
+        }
+
+        /**
+         * Reports the number of points.
+         *
+         * @return the number of points
+         */
+        int size() {
+            return this.size;
+        }
+
+        /**
+         * Reports the first column of a box centered on a point.
+         *
+         * @param p
+         *            the index of the point
+         * @param direction
+         *            the direction to go round the spiral in
+         * @param width
+         *            columns of the box
+         * @return the first column
+         */
+        int left(int p, int direction, int width) {
+            int dx = this.points[2 * p];
+            if ((direction & 1) != 0) {
+                dx = -dx;
+            }
+            return this.columns / 2 + dx - width / 2;
+        }
+
+        /**
+         * Reports the first row of a box centered on a point.
+         *
+         * @param p
+         *            the index of the point
+         * @param direction
+         *            the direction to go round the spiral in
+         * @param height
+         *            rows of the box
+         * @return the first row
+         */
+        int top(int p, int direction, int height) {
+            int dy = this.points[2 * p + 1];
+            if ((direction & 2) != 0) {
+                dy = -dy;
+            }
+            return this.rows / 2 + dy - height / 2;
+        }
+
+        /**
+         * Find the first free spot of a box along the spiral. Without a
+         * speculation, the points passed where the smallest box does not fit
+         * are skipped from then on; with one, nothing is changed, and those
+         * points are added to it instead.
+         *
+         * @param bitmap
+         *            the cells taken
+         * @param from
+         *            the index of the point to start at
+         * @param direction
+         *            the direction to go round the spiral in
+         * @param width
+         *            columns of the box
+         * @param height
+         *            rows of the box
+         * @param speculation
+         *            where to add the points found dead, or null to skip
+         *            them at once
+         * @return the index of the first point from {@code from} the box is
+         *         free at, -1 if none
+         */
+        int search(Bitmap bitmap, int from, int direction, int width,
+                int height, Speculation speculation) {
+            int[] skip = this.next[direction];
+            boolean update = speculation == null;
+            int result = -1;
+            int p = find(skip, from, update);
+            while (result < 0 && p < this.size) {
+                boolean alive = this.dead.isFree(this.left(p, direction, 1),
+                        this.top(p, direction, 1), 1, 1)
+                        && bitmap.isFree(
+                                this.left(p, direction, this.minWidth),
+                                this.top(p, direction, this.minHeight),
+                                this.minWidth, this.minHeight);
+                if (!alive && update) {
+                    this.kill(p, direction);
+                } else if (!alive) {
+                    speculation.addDead(p);
+                } else if (bitmap.isFree(this.left(p, direction, width),
+                        this.top(p, direction, height), width, height)) {
+                    result = p;
+                }
+                if (result < 0) {
+                    p = find(skip, p + 1, update);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Skip a point where the smallest box does not fit, from then on.
+         *
+         * @param p
+         *            the index of the point
+         * @param direction
+         *            the direction it was found dead in
+         */
+        void kill(int p, int direction) {
+            int column = this.left(p, direction, 1);
+            int row = this.top(p, direction, 1);
+            if (this.dead.isFree(column, row, 1, 1)) {
+                this.dead.fill(column, row, 1, 1);
+            }
+            if (this.next[direction][p] == p) {
+                this.next[direction][p] = p + 1;
+            }
+        }
+
+        /**
+         * Reports the first point at or after a point that is not skipped,
+         * halving the paths followed on the way if asked to.
+         *
+         * @param skip
+         *            the next point to try from each point
+         * @param from
+         *            the point
+         * @param update
+         *            whether to halve the paths followed
+         * @return the first point not skipped, or the number of points
+         */
+        private static int find(int[] skip, int from, boolean update) {
+            int p = from;
+            while (skip[p] != p) {
+                if (update) {
+                    skip[p] = skip[skip[p]];
+                }
+                p = skip[p];
+            }
+            return p;
+        }
+
+    }
+
+    /**
+     * Reports the advance of a word, in ems.
+     *
+     * @param word
+     *            the word
+     * @return its estimated width at a font size of 1
+     */
+    private static double advance(String word) {
+        double result = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (NARROW_CHARS.indexOf(c) >= 0) {
+                result += NARROW;
+            } else if (WIDE_CHARS.indexOf(c) >= 0) {
+                result += WIDE;
+            } else if (Character.isUpperCase(c)) {
+                result += CAPITAL;
+            } else if (c >= FIRST_FULL_WIDTH) {
+                result += FULL_WIDTH;
+            } else if (!Character.isLowSurrogate(c)) {
+                result += REGULAR;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the number of cells of a length of text, with its padding.
+     *
+     * @param pixels
+     *            the length in pixels
+     * @return the number of cells, at least 1
+     */
+    private static int cells(double pixels) {
+        return Math.max(1, (int) Math.ceil((pixels + 2 * PADDING) / CELL));
+    }
+
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes a tag cloud as an SVG image in UTF-8, each word at the place an
+ * {@link SvgLayout} finds for it, with its count as a tooltip. Words are
+ * written in the order of the list; a word the layout leaves out is not
+ * written.
+ *
+ * @author Lucas Wu
+ */
+public final class SvgRenderer implements CloudRenderer {
+
+    /**
+     * Layout of the words.
+     */
+    private final SvgLayout layout;
+
+    /**
+     * Constructor.
+     *
+     * @param layout
+     *            layout of the words
+     */
+    public SvgRenderer(SvgLayout layout) {
+        assert layout != null : "Violation of: layout is not null";
+        this.layout = layout;
+    }
+
+    @Override
+    public void render(List<WordCount> words, String name, OutputStream out)
+            throws IOException {
+        SvgLayout.Placement placement = this.layout.layout(words);
+        PrintWriter textOutput = new PrintWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        textOutput.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        textOutput.println("<svg xmlns=\"http://www.w3.org/2000/svg\" "
+                + "width=\"" + placement.width() + "\" height=\""
+                + placement.height() + "\" viewBox=\"0 0 " + placement.width()
+                + " " + placement.height() + "\">");
+        textOutput.print("<title>Top " + words.size() + " words in ");
+        escape(textOutput, name);
+        textOutput.println("</title>");
+        textOutput.println("<g font-family=\"sans-serif\" "
+                + "text-anchor=\"middle\">");
+        for (int i = 0; i < words.size(); i++) {
+            if (placement.placed(i)) {
+                WordCount entry = words.get(i);
+                textOutput.print("<text x=\"" + placement.x(i) + "\" y=\""
+                        + placement.y(i) + "\" font-size=\""
+                        + placement.fontSize(i) + "\"><title>count:"
+                        + entry.getCount() + "</title>");
+                escape(textOutput, entry.getWord());
+                textOutput.println("</text>");
+            }
+        }
+        textOutput.println("</g>");
+        textOutput.println("</svg>");
+        textOutput.flush();
+        if (textOutput.checkError()) {
+            throw new IOException("Error writing the cloud of " + name);
+        }
+    }
+
+    /**
+     * Write text with the chars that are markup in XML escaped.
+     *
+     * @param out
+     *            the output
+     * @param s
+     *            the text
+     */
+    private static void escape(PrintWriter out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    out.print("&amp;");
+                    break;
+                case '<':
+                    out.print("&lt;");
+                    break;
+                case '>':
+                    out.print("&gt;");
+                    break;
+                default:
+                    if (c >= ' ' || c == '\t') {
+                        out.print(c);
+                    }
+                    break;
+            }
+        }
+    }
+
+}
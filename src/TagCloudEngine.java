@@ -0,0 +1,634 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Library entry point for counting the top words of texts and rendering
+ * their tag clouds, with a fixed configuration.
+ *
+ * <pre>
+ * TagCloudEngine engine = TagCloudEngine.builder().top(50)
+ *         .stopWords(myStopWords).renderer(CloudRenderer.JSON).build();
+ * List&lt;WordCount&gt; words = engine.topWords(Paths.get("book.txt"));
+ * engine.render(words, "book.txt", out);
+ * </pre>
+ *
+ * An engine is immutable and may be shared by any number of threads. Each
+ * thread using it keeps its own tokenizers and read buffer, made on its
+ * first call and reused by the later ones, so a call only allocates the
+ * table it counts into and the words it returns. Texts are given as a
+ * {@link Reader}, an {@link InputStream}, a {@link Path}, a
+ * {@link ByteBuffer} or a {@link CharSequence}; bytes are decoded with the
+ * charset of the engine, and a file is memory-mapped rather than read.
+ *
+ * @author Lucas Wu
+ */
+public final class TagCloudEngine {
+
+    /**
+     * How the capitalizations of a word are counted and shown.
+     */
+    public enum CasePolicy {
+
+        /**
+         * Capitalizations are counted together and shown as the one that
+         * occurs most often, as {@link TagcloudGenerator} does.
+         */
+        MOST_COMMON,
+
+        /**
+         * Capitalizations are counted together and shown in lower case.
+         */
+        LOWER_CASE,
+
+        /**
+         * Each capitalization is a word of its own.
+         */
+        EXACT
+
+    }
+
+    /**
+     * Builder of an engine. The defaults are those of
+     * {@link TagcloudGenerator}: the default separators and stop words, the
+     * most common capitalization, 100 words, UTF-8 and HTML.
+     */
+    public static final class Builder {
+
+        /**
+         * Characters that separate words.
+         */
+        private SeparatorSet separators = SeparatorSet.DEFAULT;
+
+        /**
+         * Words that are not counted.
+         */
+        private StopWords stopWords = StopWords.DEFAULT;
+
+        /**
+         * How capitalizations are counted and shown.
+         */
+        private CasePolicy casePolicy = CasePolicy.MOST_COMMON;
+
+        /**
+         * Number of words kept.
+         */
+        private int top = DEFAULT_TOP;
+
+        /**
+         * Encoding of byte sources.
+         */
+        private Charset charset = StandardCharsets.UTF_8;
+
+        /**
+         * How clouds are written.
+         */
+        private CloudRenderer renderer = CloudRenderer.HTML;
+
+        /**
+         * Constructor.
+         */
+        private Builder() {
+        }
+
+        /**
+         * Set the characters that separate words.
+         *
+         * @param value
+         *            the separators
+         * @return this builder
+         */
+        public Builder separators(SeparatorSet value) {
+            assert value != null : "Violation of: value is not null";
+            this.separators = value;
+            return this;
+        }
+
+        /**
+         * Set the words that are not counted.
+         *
+         * @param value
+         *            the stop words
+         * @return this builder
+         */
+        public Builder stopWords(StopWords value) {
+            assert value != null : "Violation of: value is not null";
+            this.stopWords = value;
+            return this;
+        }
+
+        /**
+         * Set how capitalizations are counted and shown.
+         *
+         * @param value
+         *            the case policy
+         * @return this builder
+         */
+        public Builder casePolicy(CasePolicy value) {
+            assert value != null : "Violation of: value is not null";
+            this.casePolicy = value;
+            return this;
+        }
+
+        /**
+         * Set the number of words kept, N.
+         *
+         * @param value
+         *            N
+         * @return this builder
+         */
+        public Builder top(int value) {
+            assert value > 0 : "Violation of: value > 0";
+            this.top = value;
+            return this;
+        }
+
+        /**
+         * Set the encoding of byte sources.
+         *
+         * @param value
+         *            UTF-8, ISO-8859-1 or US-ASCII
+         * @return this builder
+         */
+        public Builder charset(Charset value) {
+            assert value != null : "Violation of: value is not null";
+            this.charset = value;
+            return this;
+        }
+
+        /**
+         * Set how clouds are written.
+         *
+         * @param value
+         *            the renderer
+         * @return this builder
+         */
+        public Builder renderer(CloudRenderer value) {
+            assert value != null : "Violation of: value is not null";
+            this.renderer = value;
+            return this;
+        }
+
+        /**
+         * Make an engine with the configuration of this builder.
+         *
+         * @return the engine
+         * @throws IllegalArgumentException
+         *             if the charset is not supported
+         */
+        public TagCloudEngine build() {
+            if (!ByteTokenizer.isSupported(this.charset)) {
+                throw new IllegalArgumentException(
+                        "Unsupported charset: " + this.charset.name());
+            }
+            return new TagCloudEngine(this);
+        }
+
+    }
+
+    /**
+     * Buffers and tokenizers of one thread.
+     */
+    private static final class Scratch {
+
+        /**
+         * Tokenizer of char sources.
+         */
+        private final WordTokenizer chars;
+
+        /**
+         * Tokenizer of byte sources.
+         */
+        private final ByteTokenizer bytes;
+
+        /**
+         * Buffer char sources are read into.
+         */
+        private char[] buffer = new char[BUFFER_SIZE];
+
+        /**
+         * Constructor.
+         *
+         * @param separators
+         *            the characters that separate words
+         * @param charset
+         *            the encoding of byte sources
+         */
+        private Scratch(SeparatorSet separators, Charset charset) {
+            this.chars = new WordTokenizer(separators);
+            this.bytes = new ByteTokenizer(separators, charset);
+        }
+
+        /**
+         * Let go of the last text scanned, so a thread does not keep a
+         * buffer or a mapped file alive between calls.
+         */
+        private void release() {
+            this.bytes.reset(EMPTY, 0, 0);
+        }
+
+    }
+
+    /**
+     * A table being counted into, and how its words are read back.
+     */
+    private static final class Counting {
+
+        /**
+         * Receives the words.
+         */
+        private final WordSink sink;
+
+        /**
+         * The words and counts, as shown.
+         */
+        private final WordCounts counts;
+
+        /**
+         * Constructor.
+         *
+         * @param sink
+         *            receives the words
+         * @param counts
+         *            the words and counts, as shown
+         */
+        private Counting(WordSink sink, WordCounts counts) {
+            this.sink = sink;
+            this.counts = counts;
+        }
+
+    }
+
+    /**
+     * Reads a char sequence.
+     */
+    private static final class CharSequenceReader extends Reader {
+
+        /**
+         * The chars.
+         */
+        private final CharSequence text;
+
+        /**
+         * Index of the next char.
+         */
+        private int next;
+
+        /**
+         * Constructor.
+         *
+         * @param text
+         *            the chars
+         */
+        private CharSequenceReader(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int count = Math.min(len, this.text.length() - this.next);
+            if (count <= 0) {
+                return len == 0 ? 0 : -1;
+            }
+            if (this.text instanceof String) {
+                ((String) this.text).getChars(this.next, this.next + count,
+                        cbuf, off);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    cbuf[off + i] = this.text.charAt(this.next + i);
+                }
+            }
+            this.next += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+
+    }
+
+    /**
+     * Default number of words kept.
+     */
+    private static final int DEFAULT_TOP = 100;
+
+    /**
+     * Initial number of chars read from a char source at a time.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Bytes scanned by a released tokenizer.
+     */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * Characters that separate words.
+     */
+    private final SeparatorSet separators;
+
+    /**
+     * Words that are not counted.
+     */
+    private final StopWords stopWords;
+
+    /**
+     * How capitalizations are counted and shown.
+     */
+    private final CasePolicy casePolicy;
+
+    /**
+     * Number of words kept.
+     */
+    private final int top;
+
+    /**
+     * Encoding of byte sources.
+     */
+    private final Charset charset;
+
+    /**
+     * How clouds are written.
+     */
+    private final CloudRenderer renderer;
+
+    /**
+     * Buffers and tokenizers of each thread.
+     */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Constructor.
+     *
+     * @param builder
+     *            the configuration
+     */
+    private TagCloudEngine(Builder builder) {
+        this.separators = builder.separators;
+        this.stopWords = builder.stopWords;
+        this.casePolicy = builder.casePolicy;
+        this.top = builder.top;
+        this.charset = builder.charset;
+        this.renderer = builder.renderer;
+        this.scratch = ThreadLocal
+                .withInitial(() -> new Scratch(this.separators, this.charset));
+    }
+
+    /**
+     * Make a builder with the default configuration.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Make a builder with the configuration of this engine, to make an
+     * engine that differs from it.
+     *
+     * @return the builder
+     */
+    public Builder toBuilder() {
+        return builder().separators(this.separators)
+                .stopWords(this.stopWords).casePolicy(this.casePolicy)
+                .top(this.top).charset(this.charset).renderer(this.renderer);
+    }
+
+    /**
+     * Reports the characters that separate words.
+     *
+     * @return the separators
+     */
+    public SeparatorSet separators() {
+        return this.separators;
+    }
+
+    /**
+     * Reports the words that are not counted.
+     *
+     * @return the stop words
+     */
+    public StopWords stopWords() {
+        return this.stopWords;
+    }
+
+    /**
+     * Reports how capitalizations are counted and shown.
+     *
+     * @return the case policy
+     */
+    public CasePolicy casePolicy() {
+        return this.casePolicy;
+    }
+
+    /**
+     * Reports the number of words kept.
+     *
+     * @return N
+     */
+    public int top() {
+        return this.top;
+    }
+
+    /**
+     * Reports the encoding of byte sources.
+     *
+     * @return the charset
+     */
+    public Charset charset() {
+        return this.charset;
+    }
+
+    /**
+     * Reports how clouds are written.
+     *
+     * @return the renderer
+     */
+    public CloudRenderer renderer() {
+        return this.renderer;
+    }
+
+    /**
+     * Count the words read from a reader. The reader is read to its end but
+     * not closed.
+     *
+     * @param text
+     *            the text
+     * @return the N words with the highest count, in alphabetical order
+     * @throws IOException
+     *             if the reader cannot be read
+     */
+    public List<WordCount> topWords(Reader text) throws IOException {
+        assert text != null : "Violation of: text is not null";
+        Counting counting = this.newCounting();
+        Scratch local = this.scratch.get();
+        local.buffer = TagcloudGenerator.countWordFromReader(text,
+                local.chars, local.buffer, this.stopWords, counting.sink);
+        return this.select(counting);
+    }
+
+    /**
+     * Count the words of a stream, decoded with the charset of the engine.
+     * The stream is read to its end but not closed.
+     *
+     * @param text
+     *            the text
+     * @return the N words with the highest count, in alphabetical order
+     * @throws IOException
+     *             if the stream cannot be read
+     */
+    public List<WordCount> topWords(InputStream text) throws IOException {
+        assert text != null : "Violation of: text is not null";
+        return this.topWords(new InputStreamReader(text, this.charset));
+    }
+
+    /**
+     * Count the words of a file, decoded with the charset of the engine.
+     *
+     * @param text
+     *            the file
+     * @return the N words with the highest count, in alphabetical order
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public List<WordCount> topWords(Path text) throws IOException {
+        assert text != null : "Violation of: text is not null";
+        Counting counting = this.newCounting();
+        Scratch local = this.scratch.get();
+        try {
+            TagcloudGenerator.countWordFromFile(text, local.bytes,
+                    this.stopWords, counting.sink);
+        } finally {
+            local.release();
+        }
+        return this.select(counting);
+    }
+
+    /**
+     * Count the words of the bytes from position to limit, decoded with the
+     * charset of the engine. The position of {@code text} is not changed.
+     *
+     * @param text
+     *            the text
+     * @return the N words with the highest count, in alphabetical order
+     */
+    public List<WordCount> topWords(ByteBuffer text) {
+        assert text != null : "Violation of: text is not null";
+        Counting counting = this.newCounting();
+        Scratch local = this.scratch.get();
+        try {
+            TagcloudGenerator.countWordFromBytes(text, local.bytes,
+                    this.stopWords, counting.sink);
+        } finally {
+            local.release();
+        }
+        return this.select(counting);
+    }
+
+    /**
+     * Count the words of a char sequence.
+     *
+     * @param text
+     *            the text
+     * @return the N words with the highest count, in alphabetical order
+     */
+    public List<WordCount> topWords(CharSequence text) {
+        assert text != null : "Violation of: text is not null";
+        try {
+            return this.topWords(new CharSequenceReader(text));
+        } catch (IOException e) {
+            // a CharSequenceReader does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write a tag cloud with the renderer of the engine. The stream is not
+     * closed.
+     *
+     * @param words
+     *            the words of the cloud, in alphabetical order
+     * @param name
+     *            the name of the text the words come from
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    public void render(List<WordCount> words, String name, OutputStream out)
+            throws IOException {
+        this.renderer.render(words, name, out);
+    }
+
+    /**
+     * Make the table to count a text into, for the case policy.
+     *
+     * @return the table
+     */
+    private Counting newCounting() {
+        Counting result;
+        switch (this.casePolicy) {
+            case LOWER_CASE: {
+                CaseVariantTable table = new CaseVariantTable();
+                result = new Counting(table, new WordCounts() {
+                    @Override
+                    public int size() {
+                        return table.size();
+                    }
+
+                    @Override
+                    public String word(int index) {
+                        return table.foldedWord(table.shownVariant(index));
+                    }
+
+                    @Override
+                    public int count(int index) {
+                        return table.count(index);
+                    }
+                });
+                break;
+            }
+            case EXACT: {
+                WordCountTable table = new WordCountTable();
+                result = new Counting(table::add, table);
+                break;
+            }
+            default: {
+                CaseVariantTable table = new CaseVariantTable();
+                result = new Counting(table, table);
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Select the N words with the highest count of a table.
+     *
+     * @param counting
+     *            the table
+     * @return the words, in alphabetical order
+     */
+    private List<WordCount> select(Counting counting) {
+        List<WordCount> result;
+        int num = Math.min(this.top, counting.counts.size());
+        if (num > 0) {
+            result = TagcloudGenerator.sortAndResize(counting.counts, num);
+        } else {
+            result = new ArrayList<>();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,375 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Generates the tag clouds of many files concurrently, one task per file.
+ *
+ * <p>
+ * Each task runs the pipeline of a single file, {@link TagcloudCli#process},
+ * with all the options of the run. Counting, sorting and rendering hold a
+ * permit of the CPU semaphore, and hashing and writing a permit of the I/O
+ * semaphore, so at most {@code cpuPermits} files have their words in memory
+ * and at most {@code ioPermits} are hashed or written at the same time,
+ * however many files there are; a queued task holds nothing but its paths.
+ * Tasks run on virtual threads when the JVM has them (Java 21), and
+ * otherwise on a fixed pool with one platform thread per permit.
+ *
+ * <p>
+ * With a {@link TagcloudCache}, a file whose cloud is in the cache is only
+ * hashed and written: it is not counted, and takes no CPU permit.
+ *
+ * <p>
+ * A file that cannot be read, counted or written, whatever the exception or
+ * error, fails only its own task; its {@link Result} holds the error and the
+ * other files go on.
+ *
+ * @author Lucas Wu
+ */
+public final class TagcloudBatch {
+
+    /**
+     * Bytes in a megabyte, for throughput.
+     */
+    private static final double MEGABYTE = 1024 * 1024;
+
+    /**
+     * Nanoseconds in a second, for throughput.
+     */
+    private static final double SECOND = 1e9;
+
+    /**
+     * Outcome of one file.
+     */
+    public static final class Result {
+
+        /**
+         * The input file.
+         */
+        private final Path input;
+
+        /**
+         * The output file.
+         */
+        private final Path output;
+
+        /**
+         * Number of bytes read.
+         */
+        private final long bytes;
+
+        /**
+         * Number of words in the cloud.
+         */
+        private final int words;
+
+        /**
+         * Whether the cloud came from the cache.
+         */
+        private final boolean cached;
+
+        /**
+         * Time from reading the first byte to writing the last one.
+         */
+        private final long nanos;
+
+        /**
+         * Why the file failed, or null.
+         */
+        private final Throwable error;
+
+        /**
+         * Constructor.
+         *
+         * @param input
+         *            the input file
+         * @param output
+         *            the output file
+         * @param bytes
+         *            number of bytes read
+         * @param words
+         *            number of words in the cloud
+         * @param cached
+         *            whether the cloud came from the cache
+         * @param nanos
+         *            time spent on the file
+         * @param error
+         *            why the file failed, or null
+         */
+        private Result(Path input, Path output, long bytes, int words,
+                boolean cached, long nanos, Throwable error) {
+            this.input = input;
+            this.output = output;
+            this.bytes = bytes;
+            this.words = words;
+            this.cached = cached;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        /**
+         * Reports the input file.
+         *
+         * @return the input file
+         */
+        public Path input() {
+            return this.input;
+        }
+
+        /**
+         * Reports the output file.
+         *
+         * @return the output file
+         */
+        public Path output() {
+            return this.output;
+        }
+
+        /**
+         * Reports the number of bytes read.
+         *
+         * @return the number of bytes read
+         */
+        public long bytes() {
+            return this.bytes;
+        }
+
+        /**
+         * Reports the number of words in the cloud, 0 if the file has no
+         * words (and then nothing is written) or if the cloud came from the
+         * cache.
+         *
+         * @return the number of words in the cloud
+         */
+        public int words() {
+            return this.words;
+        }
+
+        /**
+         * Reports whether the cloud came from the cache.
+         *
+         * @return true if the file was not counted
+         */
+        public boolean cached() {
+            return this.cached;
+        }
+
+        /**
+         * Reports the time spent on the file, including waiting for permits.
+         *
+         * @return the time in nanoseconds
+         */
+        public long nanos() {
+            return this.nanos;
+        }
+
+        /**
+         * Reports why the file failed.
+         *
+         * @return the error, or null if the file succeeded
+         */
+        public Throwable error() {
+            return this.error;
+        }
+
+        /**
+         * Reports the throughput of the file.
+         *
+         * @return megabytes per second
+         */
+        public double megabytesPerSecond() {
+            return throughput(this.bytes, this.nanos);
+        }
+
+        @Override
+        public String toString() {
+            String result;
+            if (this.error != null) {
+                result = this.input + ": " + this.error;
+            } else if (this.cached) {
+                result = String.format("%s -> %s (cached, %.1f ms)",
+                        this.input, this.output, this.nanos / 1e6);
+            } else if (this.words == 0) {
+                result = this.input + ": no word to count";
+            } else {
+                result = String.format("%s -> %s (%d words, %.1f ms, "
+                        + "%.1f MB/s)", this.input, this.output, this.words,
+                        this.nanos / 1e6, this.megabytesPerSecond());
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * The options of the run.
+     */
+    private final TagcloudCli.Options options;
+
+    /**
+     * Permits for hashing and writing files.
+     */
+    private final Semaphore io;
+
+    /**
+     * Permits for counting, sorting and rendering.
+     */
+    private final Semaphore cpu;
+
+    /**
+     * Number of platform threads when there are no virtual threads.
+     */
+    private final int poolSize;
+
+    /**
+     * Constructor.
+     *
+     * @param options
+     *            the options of the run
+     * @param ioPermits
+     *            number of files hashed or written at the same time
+     * @param cpuPermits
+     *            number of files counted at the same time
+     */
+    TagcloudBatch(TagcloudCli.Options options, int ioPermits,
+            int cpuPermits) {
+        assert ioPermits > 0 : "Violation of: ioPermits > 0";
+        assert cpuPermits > 0 : "Violation of: cpuPermits > 0";
+        this.options = options;
+        this.io = new Semaphore(ioPermits);
+        this.cpu = new Semaphore(cpuPermits);
+        this.poolSize = ioPermits + cpuPermits;
+    }
+
+    /**
+     * Generate the clouds of all inputs and wait for them.
+     *
+     * @param inputs
+     *            the input files
+     * @param outputs
+     *            the output file of each input, none of them an input or
+     *            the output of another input
+     * @return the result of each input, in the order of {@code inputs}
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public List<Result> run(List<Path> inputs, List<Path> outputs)
+            throws InterruptedException {
+        assert inputs.size() == outputs.size()
+                : "Violation of: |inputs| = |outputs|";
+        List<Future<Result>> futures = new ArrayList<>(inputs.size());
+        ExecutorService executor = this.newExecutor();
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                Path input = inputs.get(i);
+                Path output = outputs.get(i);
+                futures.add(
+                        executor.submit(() -> this.process(input, output)));
+            }
+            List<Result> results = new ArrayList<>(inputs.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // process records its failures, but fail only this file
+                    results.add(new Result(inputs.get(i), outputs.get(i), 0,
+                            0, false, 0, e.getCause()));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reports the throughput of a batch, from the total bytes and the wall
+     * time of the whole batch.
+     *
+     * @param results
+     *            the results of the batch
+     * @param nanos
+     *            the wall time of the batch
+     * @return megabytes per second
+     */
+    public static double megabytesPerSecond(List<Result> results,
+            long nanos) {
+        long bytes = 0;
+        for (Result result : results) {
+            bytes += result.bytes;
+        }
+        return throughput(bytes, nanos);
+    }
+
+    /**
+     * Generate the cloud of one file.
+     *
+     * @param input
+     *            the input file
+     * @param output
+     *            the output file
+     * @return the result
+     */
+    private Result process(Path input, Path output) {
+        long start = System.nanoTime();
+        long bytes = 0;
+        int num = 0;
+        boolean cached = false;
+        Throwable error = null;
+        try {
+            bytes = Files.size(input);
+            num = TagcloudCli.process(this.options, input, output, this.io,
+                    this.cpu);
+            if (num == TagcloudCli.CACHED) {
+                cached = true;
+                num = 0;
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // whatever goes wrong with this file, the others go on
+            error = e;
+        }
+        return new Result(input, output, bytes, num, cached,
+                System.nanoTime() - start, error);
+    }
+
+    /**
+     * Create the executor running the tasks: one virtual thread per task if
+     * the JVM has them, otherwise a fixed pool of platform threads, since the
+     * permits let no more tasks than that make progress.
+     *
+     * @return the executor
+     */
+    private ExecutorService newExecutor() {
+        ExecutorService result;
+        try {
+            result = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException
+                | UnsupportedOperationException e) {
+            result = Executors.newFixedThreadPool(this.poolSize);
+        }
+        return result;
+    }
+
+    /**
+     * Reports a throughput.
+     *
+     * @param bytes
+     *            number of bytes
+     * @param nanos
+     *            time in nanoseconds
+     * @return megabytes per second
+     */
+    private static double throughput(long bytes, long nanos) {
+        return bytes / MEGABYTE / Math.max(1, nanos) * SECOND;
+    }
+
+}
@@ -0,0 +1,443 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of rendered tag clouds, keyed by what determines them: the SHA-256
+ * of the text, the counting settings, N, the output format and the name
+ * shown in the cloud. A hit skips counting, sorting and rendering.
+ *
+ * <p>
+ * The memory tier keeps the least recently used clouds up to a number of
+ * bytes, evicting the least recently used first. The optional disk tier
+ * keeps every cloud put in the cache as a file named after the SHA-256 of
+ * its key; a cloud found there is brought back into memory. Hits, misses
+ * and evictions are counted. A cache may be shared between threads.
+ *
+ * @author Lucas Wu
+ */
+public final class TagcloudCache {
+
+    /**
+     * Bytes of the text hashed at a time.
+     */
+    private static final int HASH_WINDOW = 1 << 30;
+
+    /**
+     * Bytes counted for each entry on top of its key and value.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * Hex digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Clouds in memory, least recently used first.
+     */
+    private final LinkedHashMap<String, byte[]> memory;
+
+    /**
+     * Maximum bytes of the memory tier.
+     */
+    private final long maxBytes;
+
+    /**
+     * Directory of the disk tier, or null.
+     */
+    private final Path directory;
+
+    /**
+     * Bytes used by the memory tier.
+     */
+    private long bytes;
+
+    /**
+     * Number of lookups found in memory.
+     */
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    /**
+     * Number of lookups found on disk.
+     */
+    private final AtomicLong diskHits = new AtomicLong();
+
+    /**
+     * Number of lookups not found.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Number of clouds evicted from memory.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes
+     *            maximum bytes of the memory tier
+     * @param directory
+     *            directory of the disk tier, or null for no disk tier
+     */
+    public TagcloudCache(long maxBytes, Path directory) {
+        assert maxBytes >= 0 : "Violation of: maxBytes >= 0";
+        this.memory = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    /**
+     * Make the key of a cloud.
+     *
+     * @param contentHash
+     *            hash of the text, from {@link #contentHash(Path)} or
+     *            {@link #contentHash(ByteBuffer)}
+     * @param settings
+     *            the counting settings: charset, separators, stop words
+     * @param n
+     *            the number of words of the cloud
+     * @param format
+     *            the output format
+     * @param name
+     *            the name of the text shown in the cloud
+     * @return the key
+     */
+    public static String key(String contentHash, String settings, int n,
+            String format, String name) {
+        return contentHash + '\n' + settings + '\n' + n + '\n' + format
+                + '\n' + name;
+    }
+
+    /**
+     * Reports the SHA-256 of the content of a file.
+     *
+     * @param file
+     *            the file
+     * @return the hash, in hex
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static String contentHash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(size - position, HASH_WINDOW);
+                MappedByteBuffer window = channel.map(MapMode.READ_ONLY,
+                        position, length);
+                digest.update(window);
+                DirectMemory.free(window);
+                position += length;
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Reports a stamp of a file, its size and modification time, that
+     * changes when its content is written. A cloud is put in the cache
+     * under the hash of its file only if the stamp taken before hashing is
+     * the same after counting, so a file changed in between is not cached
+     * under the hash of its old content.
+     *
+     * @param file
+     *            the file
+     * @return the stamp
+     * @throws IOException
+     *             if the attributes of the file cannot be read
+     */
+    public static String stamp(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file,
+                BasicFileAttributes.class);
+        return attributes.size() + "@"
+                + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reports the SHA-256 of bytes, from position to limit. The position of
+     * {@code content} is not changed.
+     *
+     * @param content
+     *            the bytes
+     * @return the hash, in hex
+     */
+    public static String contentHash(ByteBuffer content) {
+        MessageDigest digest = sha256();
+        digest.update(content.duplicate());
+        return hex(digest.digest());
+    }
+
+    /**
+     * Look up a cloud, in memory and then on disk.
+     *
+     * @param key
+     *            the key of the cloud
+     * @return the cloud, or null if it is not in the cache
+     * @throws IOException
+     *             if the disk tier cannot be read
+     */
+    public byte[] get(String key) throws IOException {
+        byte[] result;
+        synchronized (this.memory) {
+            result = this.memory.get(key);
+        }
+        if (result != null) {
+            this.memoryHits.incrementAndGet();
+        } else {
+            if (this.directory != null) {
+                result = this.readDisk(key);
+            }
+            if (result != null) {
+                this.diskHits.incrementAndGet();
+                this.putMemory(key, result);
+            } else {
+                this.misses.incrementAndGet();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Put a cloud in the cache, in memory and on disk.
+     *
+     * @param key
+     *            the key of the cloud
+     * @param cloud
+     *            the cloud, which must not be changed afterwards
+     * @throws IOException
+     *             if the disk tier cannot be written
+     */
+    public void put(String key, byte[] cloud) throws IOException {
+        this.putMemory(key, cloud);
+        if (this.directory != null) {
+            this.writeDisk(key, cloud);
+        }
+    }
+
+    /**
+     * Reports the number of lookups found in memory.
+     *
+     * @return the number of memory hits
+     */
+    public long memoryHits() {
+        return this.memoryHits.get();
+    }
+
+    /**
+     * Reports the number of lookups found on disk but not in memory.
+     *
+     * @return the number of disk hits
+     */
+    public long diskHits() {
+        return this.diskHits.get();
+    }
+
+    /**
+     * Reports the number of lookups not found.
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Reports the number of clouds evicted from memory.
+     *
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Reports the bytes used by the memory tier.
+     *
+     * @return the bytes in memory
+     */
+    public long memoryBytes() {
+        synchronized (this.memory) {
+            return this.bytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hits " + this.memoryHits() + " (+" + this.diskHits()
+                + " from disk), misses " + this.misses() + ", evictions "
+                + this.evictions() + ", " + this.memoryBytes()
+                + " bytes in memory";
+    }
+
+    /**
+     * Put a cloud in memory, evicting the least recently used clouds to
+     * stay under the maximum bytes. A cloud larger than the maximum is not
+     * kept.
+     *
+     * @param key
+     *            the key of the cloud
+     * @param cloud
+     *            the cloud
+     */
+    private void putMemory(String key, byte[] cloud) {
+        long size = weight(key, cloud);
+        if (size > this.maxBytes) {
+            return;
+        }
+        synchronized (this.memory) {
+            byte[] old = this.memory.put(key, cloud);
+            if (old != null) {
+                this.bytes -= weight(key, old);
+            }
+            this.bytes += size;
+            Iterator<Map.Entry<String, byte[]>> eldest = this.memory
+                    .entrySet().iterator();
+            while (this.bytes > this.maxBytes) {
+                Map.Entry<String, byte[]> entry = eldest.next();
+                this.bytes -= weight(entry.getKey(), entry.getValue());
+                eldest.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Read a cloud from the disk tier.
+     *
+     * @param key
+     *            the key of the cloud
+     * @return the cloud, or null if it is not on disk
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private byte[] readDisk(String key) throws IOException {
+        byte[] file;
+        try {
+            file = Files.readAllBytes(this.fileOf(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        byte[] result = null;
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(file))) {
+            if (key.equals(in.readUTF())) {
+                result = in.readAllBytes();
+            }
+        } catch (IOException e) {
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * Write a cloud to the disk tier, through a temporary file moved into
+     * place so readers never see a partial file.
+     *
+     * @param key
+     *            the key of the cloud
+     * @param cloud
+     *            the cloud
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private void writeDisk(String key, byte[] cloud) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                cloud.length + 2 * key.length() + 2);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeUTF(key);
+            out.write(cloud);
+        }
+        Path file = this.fileOf(key);
+        Files.createDirectories(this.directory);
+        Path temp = Files.createTempFile(this.directory,
+                file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, buffer.toByteArray());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reports the disk tier file of a key.
+     *
+     * @param key
+     *            the key
+     * @return the file
+     */
+    private Path fileOf(String key) {
+        MessageDigest digest = sha256();
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        return this.directory.resolve(hex(digest.digest()) + ".cloud");
+    }
+
+    /**
+     * Reports the bytes counted for an entry.
+     *
+     * @param key
+     *            the key
+     * @param cloud
+     *            the cloud
+     * @return the bytes
+     */
+    private static long weight(String key, byte[] cloud) {
+        return cloud.length + 2L * key.length() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Make a SHA-256 digest.
+     *
+     * @return the digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write bytes in hex.
+     *
+     * @param bytes
+     *            the bytes
+     * @return the hex digits
+     */
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+}
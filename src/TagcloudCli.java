@@ -0,0 +1,1500 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Non-interactive command line for generating many tag clouds in one run.
+ *
+ * <pre>
+ * java TagcloudGenerator -i INPUT [-i INPUT ...] [-o OUTPUT] [-n N]
+ *         [--charset NAME] [--separators SPEC] [--stop-words FILE]
+ *         [--threads T] [--jobs J [--io I]]
+ *         [--approximate F | --sketch F | --spill W] [--store heap|off-heap]
+ *         [--index DIR] [--cache DIR] [--cache-mb M]
+ *         [--format html|json|csv|binary|svg [--seed S]]
+ *         [--style link|inline]
+ *         [--gzip on|off]
+ * java TagcloudGenerator --serve PORT [--root DIR] [--max-concurrent C]
+ *         [-n N] [--charset NAME] [--separators SPEC] [--stop-words FILE]
+ *         [--cache DIR] [--cache-mb M]
+ * </pre>
+ *
+ * An INPUT is a file, a directory (all regular files in it) or a glob such as
+ * {@code data/*.txt} or {@code 'corpus/**.txt'}. With one input file, OUTPUT
+ * is the file to write; otherwise it is a directory, and each cloud is
+ * written to it as {@code <input name>.html}, or with the extension of the
+ * format. Without {@code -o}, each cloud is written next to its input. A run
+ * that would write a cloud over one of its inputs, or two clouds to the same
+ * file, is refused as a usage error.
+ *
+ * <p>
+ * Counting: N defaults to 100 and is lowered to the number of distinct words
+ * of a file that has fewer. SPEC is the name of a {@link SeparatorSet}
+ * preset or the separator chars themselves. T threads count each file, and
+ * lay out its SVG, in parallel. With {@code --store off-heap}, the exact
+ * counts are kept outside the Java heap (see
+ * {@link CaseVariantTable#offHeap()}) and freed as soon as each file is
+ * done. At most one of these counts each file differently, on one thread:
+ * <ul>
+ * <li>{@code --approximate F}: a {@link HeavyHitters} summary of F times N
+ * words (at most 2^20), in memory independent of the size of the file; the
+ * largest error of the counts shown is reported, and each count carries its
+ * own error in JSON, CSV and binary;</li>
+ * <li>{@code --sketch F}: the file is read twice, a {@link CountMinSketch}
+ * picking F times N candidate words (at most 2^20) that are then counted
+ * exactly;</li>
+ * <li>{@code --spill W}: at most W capitalizations are held in memory, past
+ * that they are spilled to sorted runs in the temporary directory and
+ * merged at the end (see {@link SpillingCounter}).</li>
+ * </ul>
+ *
+ * <p>
+ * Batch: with J greater than 1, the files go through a {@link TagcloudBatch}:
+ * J files are counted and I (default J) files read or written at the same
+ * time, each as it would be alone, and the throughput of each file and of
+ * the whole run is reported.
+ *
+ * <p>
+ * Reuse: with {@code --index DIR}, the exact counts of each file are saved in
+ * DIR as a {@link WordIndex}, and a later run with the same settings reads
+ * them from there instead of counting again, as long as the file has not
+ * changed. With {@code --cache DIR} or {@code --cache-mb M}, the clouds go
+ * through a {@link TagcloudCache} of M (default 64) megabytes in memory and,
+ * with DIR, on disk: a file with the same content, name, settings and N as
+ * one seen before is not counted again, and the hits, misses and evictions
+ * are reported.
+ *
+ * <p>
+ * Output: clouds are written in UTF-8, whatever the charset of the input, as
+ * HTML or in the {@link CloudFormat} given by {@code --format}
+ * ({@code .json}, {@code .csv}, {@code .bin} or {@code .svg}, laid out by an
+ * {@link SvgLayout} with seed S, default 0). With {@code --style inline},
+ * each page holds the stylesheet of the font classes it uses instead of
+ * linking to the course stylesheet (see {@link HtmlRenderer}). With
+ * {@code --gzip on}, a gzipped copy of each cloud is written next to it, as
+ * {@code <output>.gz}, to be served as it is.
+ *
+ * <p>
+ * Serving: with {@code --serve PORT}, no file is processed: a
+ * {@link TagcloudServer} generates clouds over HTTP on PORT, C (default 2 per
+ * processor) at a time, of uploaded texts and of the files under DIR, until
+ * the process is stopped.
+ *
+ * <p>
+ * A file that cannot be read, counted or written, whatever the exception or
+ * error, is reported and skipped, and the other files go on; the exit
+ * status is 0 if every file succeeded, 1 if some failed and 2 for a usage
+ * error.
+ *
+ * @author Lucas Wu
+ */
+public final class TagcloudCli {
+
+    /**
+     * private constructor for static class.
+     */
+    private TagcloudCli() {
+    }
+
+    /**
+     * Exit status when some file failed.
+     */
+    static final int EXIT_FAILED = 1;
+
+    /**
+     * Exit status for a usage error.
+     */
+    static final int EXIT_USAGE = 2;
+
+    /**
+     * Default number of words in a tag cloud.
+     */
+    private static final int DEFAULT_TOP = 100;
+
+    /**
+     * Most words an approximate summary or a sketch may keep.
+     */
+    private static final int MAX_SUMMARY = 1 << 20;
+
+    /**
+     * Counters per sketch row for each candidate word.
+     */
+    private static final int SKETCH_WIDTH = 256;
+
+    /**
+     * Number of sketch rows.
+     */
+    private static final int SKETCH_DEPTH = 4;
+
+    /**
+     * Number of partitions of each spill.
+     */
+    private static final int SPILL_PARTITIONS = 16;
+
+    /**
+     * Largest port number.
+     */
+    private static final int MAX_PORT = 65535;
+
+    /**
+     * Default megabytes of the memory tier of the cache.
+     */
+    private static final int DEFAULT_CACHE_MB = 64;
+
+    /**
+     * Bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1 << 20;
+
+    /**
+     * Default number of clouds the server generates at the same time, per
+     * processor.
+     */
+    private static final int DEFAULT_CONCURRENT_PER_CPU = 2;
+
+    /**
+     * Returned by {@link #process} when the cloud came from the cache.
+     */
+    static final int CACHED = -1;
+
+    /**
+     * Options of a run.
+     */
+    static final class Options {
+
+        /**
+         * Input files, directories and globs, as given.
+         */
+        private final List<String> inputs = new ArrayList<>();
+
+        /**
+         * Output file or directory, or null to write next to each input.
+         */
+        private String output;
+
+        /**
+         * Number of words in each tag cloud.
+         */
+        private int top = DEFAULT_TOP;
+
+        /**
+         * Encoding of the inputs.
+         */
+        private Charset charset = StandardCharsets.UTF_8;
+
+        /**
+         * Characters that separate words.
+         */
+        private SeparatorSet separators = SeparatorSet.DEFAULT;
+
+        /**
+         * Words that are not counted.
+         */
+        private StopWords stopWords = StopWords.DEFAULT;
+
+        /**
+         * Number of threads counting each file and laying out its SVG.
+         */
+        private int threads = 1;
+
+        /**
+         * Number of files counted at the same time.
+         */
+        private int jobs = 1;
+
+        /**
+         * Number of files read or written at the same time, or 0 for as many
+         * as {@link #jobs}.
+         */
+        private int io;
+
+        /**
+         * Size of the approximate summary as a multiple of {@link #top}, or
+         * 0 to count exactly.
+         */
+        private int approximate;
+
+        /**
+         * Number of sketch candidates as a multiple of {@link #top}, or 0
+         * not to use a sketch.
+         */
+        private int sketch;
+
+        /**
+         * Whether words are counted outside the Java heap.
+         */
+        private boolean offHeap;
+
+        /**
+         * Number of capitalizations held in memory before spilling, or 0
+         * never to spill.
+         */
+        private int spill;
+
+        /**
+         * Directory of the word indexes, or null not to use indexes.
+         */
+        private Path indexDirectory;
+
+        /**
+         * The settings the words are counted with, as saved in indexes and
+         * cache keys.
+         */
+        private String settings;
+
+        /**
+         * Cache of the clouds, or null not to use a cache.
+         */
+        private TagcloudCache cache;
+
+        /**
+         * Whether each page holds its own stylesheet.
+         */
+        private boolean inlineStyle;
+
+        /**
+         * Whether a gzipped copy of each page is written.
+         */
+        private boolean gzip;
+
+        /**
+         * Output format.
+         */
+        private CloudFormat format = CloudFormat.HTML;
+
+        /**
+         * Seed of an SVG layout.
+         */
+        private long seed;
+
+        /**
+         * Renderer of the clouds, in UTF-8.
+         */
+        private CloudRenderer renderer;
+
+        /**
+         * Port to serve on, or -1 not to serve.
+         */
+        private int serve = -1;
+
+        /**
+         * Directory of the files the server may read, or null.
+         */
+        private Path root;
+
+        /**
+         * Number of clouds the server generates at the same time.
+         */
+        private int maxConcurrent = DEFAULT_CONCURRENT_PER_CPU
+                * Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Reports the number of words in each tag cloud.
+         *
+         * @return N
+         */
+        int top() {
+            return this.top;
+        }
+
+        /**
+         * Reports the encoding of the inputs.
+         *
+         * @return the charset
+         */
+        Charset charset() {
+            return this.charset;
+        }
+
+        /**
+         * Reports the characters that separate words.
+         *
+         * @return the separators
+         */
+        SeparatorSet separators() {
+            return this.separators;
+        }
+
+        /**
+         * Reports the words that are not counted.
+         *
+         * @return the stop words
+         */
+        StopWords stopWords() {
+            return this.stopWords;
+        }
+
+        /**
+         * Reports the number of threads counting each file.
+         *
+         * @return the number of threads
+         */
+        int threads() {
+            return this.threads;
+        }
+
+        /**
+         * Reports the settings the words are counted with, naming the
+         * charset, separators and stop words.
+         *
+         * @return the settings
+         */
+        String settings() {
+            return this.settings;
+        }
+
+        /**
+         * Reports the output format.
+         *
+         * @return the format
+         */
+        CloudFormat format() {
+            return this.format;
+        }
+
+        /**
+         * Reports the cache of the clouds.
+         *
+         * @return the cache, or null
+         */
+        TagcloudCache cache() {
+            return this.cache;
+        }
+
+    }
+
+    /**
+     * Gzip stream that compresses as much as it can.
+     */
+    private static final class BestGzipOutputStream
+            extends GZIPOutputStream {
+
+        /**
+         * Constructor.
+         *
+         * @param out
+         *            the stream the gzip file is written to
+         * @throws IOException
+         *             if the gzip header cannot be written
+         */
+        BestGzipOutputStream(OutputStream out) throws IOException {
+            super(out);
+            this.def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+
+    }
+
+    /**
+     * Parse the command line arguments.
+     *
+     * @param args
+     *            the command line arguments
+     * @return the options
+     * @throws IllegalArgumentException
+     *             if the arguments are not valid
+     * @throws IOException
+     *             if a stop-word file cannot be read
+     */
+    static Options parse(String[] args) throws IOException {
+        Options options = new Options();
+        List<Path> stopWordFiles = new ArrayList<>();
+        StringBuilder settings = new StringBuilder();
+        Path cacheDirectory = null;
+        int cacheMegabytes = 0;
+        int i = 0;
+        while (i < args.length) {
+            String flag = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(
+                        "Missing value for " + flag);
+            }
+            String value = args[i + 1];
+            switch (flag) {
+                case "-i":
+                case "--input":
+                    options.inputs.add(value);
+                    break;
+                case "-o":
+                case "--output":
+                    options.output = value;
+                    break;
+                case "-n":
+                case "--top":
+                    options.top = positive(flag, value);
+                    break;
+                case "--charset":
+                    options.charset = Charset.forName(value);
+                    if (!ByteTokenizer.isSupported(options.charset)) {
+                        throw new IllegalArgumentException(
+                                "Unsupported charset: " + value);
+                    }
+                    break;
+                case "--separators":
+                    options.separators = separators(value);
+                    settings.append(" separators=").append(value);
+                    break;
+                case "--stop-words":
+                    stopWordFiles.add(Paths.get(value));
+                    settings.append(" stop-words=").append(value).append('@')
+                            .append(Files.getLastModifiedTime(Paths.get(value))
+                                    .toMillis());
+                    break;
+                case "--threads":
+                    options.threads = positive(flag, value);
+                    break;
+                case "--jobs":
+                    options.jobs = positive(flag, value);
+                    break;
+                case "--io":
+                    options.io = positive(flag, value);
+                    break;
+                case "--approximate":
+                    options.approximate = positive(flag, value);
+                    break;
+                case "--sketch":
+                    options.sketch = positive(flag, value);
+                    break;
+                case "--spill":
+                    options.spill = positive(flag, value);
+                    break;
+                case "--index":
+                    options.indexDirectory = Paths.get(value);
+                    break;
+                case "--store":
+                    options.offHeap = offHeap(value);
+                    break;
+                case "--cache":
+                    cacheDirectory = Paths.get(value);
+                    break;
+                case "--cache-mb":
+                    cacheMegabytes = positive(flag, value);
+                    break;
+                case "--format":
+                    options.format = CloudFormat.named(value);
+                    break;
+                case "--seed":
+                    options.seed = seed(value);
+                    break;
+                case "--style":
+                    options.inlineStyle = inlineStyle(value);
+                    break;
+                case "--gzip":
+                    options.gzip = onOff(flag, value);
+                    break;
+                case "--serve":
+                    options.serve = port(value);
+                    break;
+                case "--root":
+                    options.root = Paths.get(value);
+                    break;
+                case "--max-concurrent":
+                    options.maxConcurrent = positive(flag, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unknown option: " + flag);
+            }
+            i += 2;
+        }
+        if (options.serve >= 0 && !options.inputs.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "--serve takes its texts from requests, not -i");
+        }
+        if (options.serve < 0 && options.inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input given");
+        }
+        int modes = Integer.signum(options.approximate)
+                + Integer.signum(options.sketch)
+                + Integer.signum(options.spill);
+        if (modes > 1) {
+            throw new IllegalArgumentException(
+                    "--approximate, --sketch and --spill cannot be combined");
+        }
+        if (modes > 0 && options.indexDirectory != null) {
+            throw new IllegalArgumentException("--index saves exact counts: "
+                    + "it cannot be combined with --approximate, --sketch "
+                    + "or --spill");
+        }
+        if (options.serve >= 0 && (modes > 0 || options.threads > 1
+                || options.jobs > 1 || options.indexDirectory != null)) {
+            throw new IllegalArgumentException("--serve counts each text "
+                    + "exactly, on the thread of its request");
+        }
+        if (modes > 0 && options.threads > 1) {
+            throw new IllegalArgumentException("--approximate, --sketch and "
+                    + "--spill count each file on one thread");
+        }
+        if ((long) options.top * options.approximate > MAX_SUMMARY) {
+            throw new IllegalArgumentException("--approximate F keeps F "
+                    + "times N words, at most " + MAX_SUMMARY);
+        }
+        if ((long) options.top * options.sketch > MAX_SUMMARY) {
+            throw new IllegalArgumentException("--sketch F picks F times N "
+                    + "candidate words, at most " + MAX_SUMMARY);
+        }
+        if (!stopWordFiles.isEmpty()) {
+            options.stopWords = StopWords.load(stopWordFiles, 2, true);
+        }
+        if (options.approximate > 0) {
+            settings.append(" approximate=").append(options.approximate);
+        }
+        if (options.sketch > 0) {
+            settings.append(" sketch=").append(options.sketch);
+        }
+        options.settings = "charset=" + options.charset.name() + settings;
+        options.renderer = renderer(options);
+        if (cacheDirectory != null || cacheMegabytes > 0) {
+            if (cacheMegabytes == 0) {
+                cacheMegabytes = DEFAULT_CACHE_MB;
+            }
+            options.cache = new TagcloudCache(cacheMegabytes * MEGABYTE,
+                    cacheDirectory);
+        }
+        return options;
+    }
+
+    /**
+     * Expand the inputs into the list of files to process: directories into
+     * their regular files, globs into the files they match.
+     *
+     * @param options
+     *            the options
+     * @return the files, in order, each directory and glob sorted by name
+     * @throws IOException
+     *             if a directory cannot be listed
+     */
+    static List<Path> expand(Options options) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String input : options.inputs) {
+            if (isGlob(input)) {
+                files.addAll(glob(input));
+            } else {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> list = Files.list(path)) {
+                        files.addAll(list.filter(Files::isRegularFile)
+                                .sorted().collect(Collectors.toList()));
+                    }
+                } else {
+                    files.add(path);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Reports the output file for an input.
+     *
+     * @param options
+     *            the options
+     * @param input
+     *            the input file
+     * @param many
+     *            whether there is more than one input file
+     * @return the output file
+     */
+    static Path outputFor(Options options, Path input, boolean many) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        name += "." + options.format.extension();
+
+        Path result;
+        if (options.output == null) {
+            result = input.resolveSibling(name);
+        } else if (many || Files.isDirectory(Paths.get(options.output))) {
+            result = Paths.get(options.output).resolve(name);
+        } else {
+            result = Paths.get(options.output);
+        }
+        return result;
+    }
+
+    /**
+     * Reports the output file of every input, making sure that no cloud is
+     * written over an input or over the cloud of another input.
+     *
+     * @param options
+     *            the options
+     * @param files
+     *            the input files
+     * @return the output file of each input, in the order of {@code files}
+     * @throws IllegalArgumentException
+     *             if a cloud, or its gzipped copy, would be written over an
+     *             input or over another cloud
+     */
+    static List<Path> outputs(Options options, List<Path> files) {
+        Map<Path, Path> inputs = new HashMap<>();
+        for (Path input : files) {
+            inputs.put(input.toAbsolutePath().normalize(), input);
+        }
+        Map<Path, Path> written = new HashMap<>();
+        boolean many = files.size() > 1;
+        List<Path> result = new ArrayList<>(files.size());
+        for (Path input : files) {
+            Path output = outputFor(options, input, many);
+            List<Path> targets = new ArrayList<>();
+            targets.add(output);
+            if (options.gzip) {
+                targets.add(output.resolveSibling(output.getFileName()
+                        + ".gz"));
+            }
+            for (Path target : targets) {
+                Path key = target.toAbsolutePath().normalize();
+                if (inputs.containsKey(key)) {
+                    throw new IllegalArgumentException("The cloud of "
+                            + input + " would overwrite the input "
+                            + inputs.get(key) + "; give another -o");
+                }
+                Path other = written.putIfAbsent(key, input);
+                if (other != null) {
+                    throw new IllegalArgumentException("The clouds of "
+                            + other + " and " + input
+                            + " would both be written to " + target);
+                }
+            }
+            result.add(output);
+        }
+        return result;
+    }
+
+    /**
+     * Count the words of one input and write its tag cloud.
+     *
+     * @param options
+     *            the options
+     * @param input
+     *            the input file
+     * @param output
+     *            the output file
+     * @return the number of words in the tag cloud, 0 if the input has no
+     *         words (and then nothing is written), {@link #CACHED} if the
+     *         cloud came from the cache
+     * @throws IOException
+     *             if the input cannot be read or the output written
+     */
+    static int process(Options options, Path input, Path output)
+            throws IOException {
+        return process(options, input, output, null, null);
+    }
+
+    /**
+     * Count the words of one input and write its tag cloud, holding a permit
+     * of {@code io} while the input is hashed and the cloud written, and one
+     * of {@code cpu} while the words are counted, sorted and rendered. This
+     * is the pipeline of every file, run by {@link #runEach} without permits
+     * and by {@link TagcloudBatch} with them.
+     *
+     * @param options
+     *            the options
+     * @param input
+     *            the input file
+     * @param output
+     *            the output file
+     * @param io
+     *            permits for reading and writing whole files, or null
+     * @param cpu
+     *            permits for counting, sorting and rendering, or null
+     * @return the number of words in the tag cloud, 0 if the input has no
+     *         words (and then nothing is written), {@link #CACHED} if the
+     *         cloud came from the cache
+     * @throws IOException
+     *             if the input cannot be read or the output written
+     */
+    static int process(Options options, Path input, Path output,
+            Semaphore io, Semaphore cpu) throws IOException {
+        String key = null;
+        String stamp = null;
+        if (options.cache != null) {
+            String hash;
+            acquire(io);
+            try {
+                stamp = TagcloudCache.stamp(input);
+                hash = TagcloudCache.contentHash(input);
+            } finally {
+                release(io);
+            }
+            key = TagcloudCache.key(hash, options.settings, options.top,
+                    format(options), input.toString());
+            byte[] cloud = options.cache.get(key);
+            if (cloud != null) {
+                acquire(io);
+                try {
+                    write(options, cloud, output);
+                } finally {
+                    release(io);
+                }
+                return CACHED;
+            }
+        }
+
+        // with permits, rendering and writing are apart: buffer the cloud
+        boolean buffered = key != null || options.gzip || io != null;
+        List<WordCount> sorted;
+        byte[] cloud = null;
+        acquire(cpu);
+        try {
+            sorted = topWords(options, input, options.top);
+            if (!sorted.isEmpty() && buffered) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                options.renderer.render(sorted, input.toString(), buffer);
+                cloud = buffer.toByteArray();
+            } else if (!sorted.isEmpty()) {
+                render(options, sorted, input, output);
+            }
+        } finally {
+            release(cpu);
+        }
+        if (cloud != null) {
+            acquire(io);
+            try {
+                write(options, cloud, output);
+            } finally {
+                release(io);
+            }
+            // the file may have changed since it was hashed
+            if (key != null && stamp.equals(TagcloudCache.stamp(input))) {
+                options.cache.put(key, cloud);
+            }
+        }
+        return sorted.size();
+    }
+
+    /**
+     * Count the words of one input as the options say, and select its top
+     * words: exactly or from its index, in a bounded summary, or spilling to
+     * disk.
+     *
+     * @param options
+     *            the options
+     * @param input
+     *            the input file
+     * @param top
+     *            the number of words to keep
+     * @return the top words, in alphabetical order, none if the input has no
+     *         words
+     * @throws IOException
+     *             if the input cannot be read, or an index or the runs
+     *             written
+     */
+    static List<WordCount> topWords(Options options, Path input, int top)
+            throws IOException {
+        List<WordCount> result;
+        if (options.approximate > 0) {
+            result = topApproximate(options, input, top);
+        } else if (options.spill > 0) {
+            result = topSpilling(options, input, top);
+        } else {
+            result = topExact(options, input, top);
+        }
+        return result;
+    }
+
+    /**
+     * Select the top words of counted words.
+     *
+     * @param words
+     *            the counted words
+     * @param top
+     *            the number of words to keep
+     * @return the top words, in alphabetical order, none if there are no
+     *         words
+     */
+    static List<WordCount> sorted(WordCounts words, int top) {
+        List<WordCount> result = new ArrayList<>();
+        int num = Math.min(top, words.size());
+        if (num > 0) {
+            result = TagcloudGenerator.sortAndResize(words, num);
+        }
+        return result;
+    }
+
+    /**
+     * Count the words of one input exactly, or read them from its index, and
+     * select its top words.
+     *
+     * @param options
+     *            the options
+     * @param input
+     *            the input file
+     * @param top
+     *            the number of words to keep
+     * @return the top words, in alphabetical order
+     * @throws IOException
+     *             if the input cannot be read or the index written
+     */
+    private static List<WordCount> topExact(Options options, Path input,
+            int top) throws IOException {
+        Path indexFile = null;
+        WordIndex.Fingerprint fingerprint = null;
+        if (options.indexDirectory != null) {
+            indexFile = indexFor(options, input);
+            try (WordIndex index = WordIndex.open(indexFile, input,
+                    options.settings)) {
+                if (index != null) {
+                    System.out.println(input + ": read from " + indexFile);
+                    return sorted(index, top);
+                }
+            }
+            fingerprint = WordIndex.fingerprint(input);
+        }
+        CaseVariantTable words;
+        if (options.offHeap) {
+            words = CaseVariantTable.offHeap();
+        } else {
+            words = new CaseVariantTable();
+        }
+        try {
+            if (options.sketch > 0) {
+                int candidates = top * options.sketch;
+                CountMinSketch sketch = new CountMinSketch(candidates,
+                        candidates * SKETCH_WIDTH, SKETCH_DEPTH);
+                TagcloudGenerator.countTopWordsFromFile(input,
+                        options.charset, options.separators,
+                        options.stopWords, sketch, words);
+            } else if (options.threads > 1) {
+                TagcloudGenerator.countWordFromFile(input, options.charset,
+                        options.separators, options.stopWords,
+                        options.threads, words);
+            } else {
+                TagcloudGenerator.countWordFromFile(input, options.charset,
+                        options.separators, options.stopWords, words);
+            }
+            if (indexFile != null) {
+                WordIndex.write(indexFile, fingerprint, options.settings,
+                        words);
+            }
+            return sorted(words, top);
+        } finally {
+            words.free();
+        }
+    }
+
+    /**
+     * Reports the index file of an input: its file name and a hash of its
+     * absolute path, in the index directory.
+     *
+     * @param options
+     *            the options
+     * @param input
+     *            the input file
+     * @return the index file
+     */
+    private static Path indexFor(Options options, Path input) {
+        String path = input.toAbsolutePath().normalize().toString();
+        return options.indexDirectory.resolve(input.getFileName() + "-"
+                + Integer.toHexString(path.hashCode()) + ".idx");
+    }
+
+    /**
+     * Count the words of one input in a bounded summary, select its top
+     * words and report the largest error of their counts.
+     *
+     * @param options
+     *            the options
+     * @param input
+     *            the input file
+     * @param top
+     *            the number of words to keep
+     * @return the top words, in alphabetical order
+     * @throws IOException
+     *             if the input cannot be read
+     */
+    private static List<WordCount> topApproximate(Options options,
+            Path input, int top) throws IOException {
+        HeavyHitters words = new HeavyHitters(top * options.approximate);
+        TagcloudGenerator.countWordFromFile(input, options.charset,
+                options.separators, options.stopWords, words);
+        List<WordCount> sorted = sorted(words, top);
+        if (!sorted.isEmpty()) {
+            int maxError = 0;
+            for (WordCount word : sorted) {
+                maxError = Math.max(maxError, word.getError());
+            }
+            System.out.println(input + ": counts shown are at most "
+                    + maxError + " too high (any count at most "
+                    + words.errorBound() + ")");
+        }
+        return sorted;
+    }
+
+    /**
+     * Count the words of one input, spilling to disk past the memory budget,
+     * and select its top words.
+     *
+     * @param options
+     *            the options
+     * @param input
+     *            the input file
+     * @param top
+     *            the number of words to keep
+     * @return the top words, in alphabetical order
+     * @throws IOException
+     *             if the input cannot be read or the runs written
+     */
+    private static List<WordCount> topSpilling(Options options, Path input,
+            int top) throws IOException {
+        Supplier<CaseVariantTable> tables = CaseVariantTable::new;
+        if (options.offHeap) {
+            tables = CaseVariantTable::offHeap;
+        }
+        try (SpillingCounter counter = new SpillingCounter(
+                Paths.get(System.getProperty("java.io.tmpdir")),
+                options.spill, SPILL_PARTITIONS, tables)) {
+            try {
+                TagcloudGenerator.countWordFromFile(input, options.charset,
+                        options.separators, options.stopWords, counter);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            List<WordCount> sorted = sorted(counter.top(top), top);
+            if (counter.spillCount() > 0) {
+                System.out.println(input + ": merged " + counter.spillCount()
+                        + " spills");
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * Render a tag cloud straight to its output file.
+     *
+     * @param options
+     *            the options
+     * @param sorted
+     *            the words of the cloud, in alphabetical order
+     * @param input
+     *            the input file
+     * @param output
+     *            the output file
+     * @throws IOException
+     *             if the output cannot be written
+     */
+    private static void render(Options options, List<WordCount> sorted,
+            Path input, Path output) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(output,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (options.renderer instanceof HtmlRenderer) {
+                ((HtmlRenderer) options.renderer).render(sorted,
+                        input.toString(), channel);
+            } else {
+                options.renderer.render(sorted, input.toString(),
+                        Channels.newOutputStream(channel));
+            }
+        }
+    }
+
+    /**
+     * Take a permit, if there are permits.
+     *
+     * @param permits
+     *            the permits, or null
+     */
+    private static void acquire(Semaphore permits) {
+        if (permits != null) {
+            permits.acquireUninterruptibly();
+        }
+    }
+
+    /**
+     * Give back a permit taken by {@link #acquire}.
+     *
+     * @param permits
+     *            the permits, or null
+     */
+    private static void release(Semaphore permits) {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Write a tag cloud already rendered, and its gzipped copy if asked for.
+     *
+     * @param options
+     *            the options
+     * @param cloud
+     *            the cloud
+     * @param output
+     *            the output file
+     * @throws IOException
+     *             if the output cannot be written
+     */
+    static void write(Options options, byte[] cloud, Path output)
+            throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Files.write(output, cloud);
+        if (options.gzip) {
+            Path gzipped = output
+                    .resolveSibling(output.getFileName() + ".gz");
+            try (OutputStream out = new BestGzipOutputStream(
+                    Files.newOutputStream(gzipped))) {
+                out.write(cloud);
+            }
+        }
+    }
+
+    /**
+     * Reports the renderer of the clouds.
+     *
+     * @param options
+     *            the options
+     * @return the renderer, in UTF-8
+     */
+    static CloudRenderer renderer(Options options) {
+        CloudRenderer result = options.format.renderer();
+        if (options.format == CloudFormat.HTML) {
+            result = new HtmlRenderer(StandardCharsets.UTF_8,
+                    options.inlineStyle);
+        } else if (options.format == CloudFormat.SVG) {
+            result = new SvgRenderer(new SvgLayout(options.seed,
+                    options.threads));
+        }
+        return result;
+    }
+
+    /**
+     * Reports the format of the clouds in cache keys.
+     *
+     * @param options
+     *            the options
+     * @return the format
+     */
+    static String format(Options options) {
+        String result;
+        if (options.format == CloudFormat.SVG) {
+            result = "svg-" + options.seed + "/UTF-8";
+        } else if (options.format != CloudFormat.HTML) {
+            result = options.format.formatName() + "/UTF-8";
+        } else if (options.inlineStyle) {
+            result = "html-inline/UTF-8";
+        } else {
+            result = "html/UTF-8";
+        }
+        return result;
+    }
+
+    /**
+     * Run the command line.
+     *
+     * @param args
+     *            the command line arguments
+     * @return the exit status
+     */
+    public static int run(String[] args) {
+        Options options;
+        List<Path> files;
+        List<Path> outputs;
+        try {
+            options = parse(args);
+            files = expand(options);
+            outputs = outputs(options, files);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java TagcloudGenerator -i INPUT "
+                    + "[-i INPUT ...] [-o OUTPUT] [-n N] [--charset NAME] "
+                    + "[--separators SPEC] [--stop-words FILE] "
+                    + "[--threads T] [--jobs J [--io I]] "
+                    + "[--approximate F | --sketch F | --spill W] "
+                    + "[--store heap|off-heap] [--index DIR] "
+                    + "[--cache DIR] [--cache-mb M] "
+                    + "[--format html|json|csv|binary|svg [--seed S]] "
+                    + "[--style link|inline] [--gzip on|off]");
+            System.err.println("   or: java TagcloudGenerator --serve PORT "
+                    + "[--root DIR] [--max-concurrent C] [-n N] "
+                    + "[--charset NAME] [--separators SPEC] "
+                    + "[--stop-words FILE] [--cache DIR] [--cache-mb M]");
+            return EXIT_USAGE;
+        }
+        if (options.serve >= 0) {
+            return serve(options);
+        }
+
+        int failed;
+        if (options.jobs > 1) {
+            failed = runBatch(options, files, outputs);
+        } else {
+            failed = runEach(options, files, outputs);
+        }
+        System.out.println(files.size() - failed + " of " + files.size()
+                + " files processed");
+        if (options.cache != null) {
+            System.out.println("cache: " + options.cache);
+        }
+
+        int result = 0;
+        if (failed > 0) {
+            result = EXIT_FAILED;
+        }
+        return result;
+    }
+
+    /**
+     * Serve tag clouds over HTTP until the process is stopped.
+     *
+     * @param options
+     *            the options
+     * @return the exit status
+     */
+    private static int serve(Options options) {
+        TagcloudServer server;
+        try {
+            server = new TagcloudServer(options,
+                    new InetSocketAddress(options.serve), options.root,
+                    options.maxConcurrent);
+        } catch (IOException e) {
+            System.err.println("Cannot serve: " + e);
+            return EXIT_FAILED;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+        System.out.println("Serving tag clouds on port "
+                + server.address().getPort());
+        try {
+            server.awaitStop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            server.stop();
+        }
+        return 0;
+    }
+
+    /**
+     * Process the files one after the other.
+     *
+     * @param options
+     *            the options
+     * @param files
+     *            the input files
+     * @param outputs
+     *            the output file of each input
+     * @return the number of files that failed
+     */
+    private static int runEach(Options options, List<Path> files,
+            List<Path> outputs) {
+        int failed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path input = files.get(i);
+            Path output = outputs.get(i);
+            try {
+                int num = process(options, input, output);
+                if (num == 0) {
+                    System.out.println(input + ": no word to count");
+                } else if (num == CACHED) {
+                    System.out.println(input + " -> " + output + " (cached)");
+                } else {
+                    System.out.println(input + " -> " + output);
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                // whatever goes wrong with this file, the others go on
+                System.err.println(input + ": " + e);
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Process the files concurrently in a {@link TagcloudBatch}.
+     *
+     * @param options
+     *            the options
+     * @param files
+     *            the input files
+     * @param outputs
+     *            the output file of each input
+     * @return the number of files that failed
+     */
+    private static int runBatch(Options options, List<Path> files,
+            List<Path> outputs) {
+        int io = options.io;
+        if (io == 0) {
+            io = options.jobs;
+        }
+        TagcloudBatch batch = new TagcloudBatch(options, io, options.jobs);
+        long start = System.nanoTime();
+        List<TagcloudBatch.Result> results;
+        try {
+            results = batch.run(files, outputs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted");
+            return files.size();
+        }
+        long nanos = System.nanoTime() - start;
+
+        int failed = 0;
+        for (TagcloudBatch.Result result : results) {
+            if (result.error() != null) {
+                System.err.println(result);
+                failed++;
+            } else {
+                System.out.println(result);
+            }
+        }
+        System.out.printf("%.1f ms, %.1f MB/s%n", nanos / 1e6,
+                TagcloudBatch.megabytesPerSecond(results, nanos));
+        return failed;
+    }
+
+    /**
+     * Parse a positive number.
+     *
+     * @param flag
+     *            the option the number belongs to
+     * @param value
+     *            the number
+     * @return the number
+     * @throws IllegalArgumentException
+     *             if the value is not a positive number
+     */
+    private static int positive(String flag, String value) {
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            result = -1;
+        }
+        if (result <= 0) {
+            throw new IllegalArgumentException(
+                    flag + " needs a positive number: " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Parse a port number.
+     *
+     * @param value
+     *            the port, 0 for any free port
+     * @return the port
+     * @throws IllegalArgumentException
+     *             if the value is not a port number
+     */
+    private static int port(String value) {
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            result = -1;
+        }
+        if (result < 0 || result > MAX_PORT) {
+            throw new IllegalArgumentException("Bad port: " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Parse a seed.
+     *
+     * @param value
+     *            the seed, a whole number
+     * @return the seed
+     * @throws IllegalArgumentException
+     *             if the seed is not a number
+     */
+    private static long seed(String value) {
+        long result;
+        try {
+            result = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad seed: " + value, e);
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether a STYLE is inline.
+     *
+     * @param style
+     *            the STYLE: link or inline
+     * @return true for inline
+     * @throws IllegalArgumentException
+     *             if the STYLE is not valid
+     */
+    private static boolean inlineStyle(String style) {
+        boolean result;
+        switch (style) {
+            case "link":
+                result = false;
+                break;
+            case "inline":
+                result = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown style: " + style);
+        }
+        return result;
+    }
+
+    /**
+     * Parse on or off.
+     *
+     * @param flag
+     *            the option the value belongs to
+     * @param value
+     *            on or off
+     * @return true for on
+     * @throws IllegalArgumentException
+     *             if the value is not on or off
+     */
+    private static boolean onOff(String flag, String value) {
+        boolean result;
+        switch (value) {
+            case "on":
+                result = true;
+                break;
+            case "off":
+                result = false;
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        flag + " needs on or off: " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether a STORE keeps words outside the Java heap.
+     *
+     * @param store
+     *            the STORE: heap or off-heap
+     * @return true for off-heap
+     * @throws IllegalArgumentException
+     *             if the STORE is not valid
+     */
+    private static boolean offHeap(String store) {
+        boolean result;
+        switch (store) {
+            case "heap":
+                result = false;
+                break;
+            case "off-heap":
+                result = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown store: " + store);
+        }
+        return result;
+    }
+
+    /**
+     * Reports the separator set for a SPEC: a preset name, or else the
+     * separator chars.
+     *
+     * @param spec
+     *            the SPEC
+     * @return the separator set
+     */
+    private static SeparatorSet separators(String spec) {
+        SeparatorSet result;
+        try {
+            result = SeparatorSet.forName(spec);
+        } catch (IllegalArgumentException e) {
+            result = SeparatorSet.of(spec);
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether an input is a glob.
+     *
+     * @param input
+     *            the input
+     * @return true if the input has glob chars
+     */
+    private static boolean isGlob(String input) {
+        return input.indexOf('*') >= 0 || input.indexOf('?') >= 0
+                || input.indexOf('[') >= 0 || input.indexOf('{') >= 0;
+    }
+
+    /**
+     * List the regular files matching a glob, searching from the directory
+     * before its first glob char.
+     *
+     * @param glob
+     *            the glob
+     * @return the matching files, sorted
+     * @throws IOException
+     *             if a directory cannot be listed
+     */
+    private static List<Path> glob(String glob) throws IOException {
+        int firstGlob = glob.length();
+        for (char c : new char[] { '*', '?', '[', '{' }) {
+            int at = glob.indexOf(c);
+            if (at >= 0 && at < firstGlob) {
+                firstGlob = at;
+            }
+        }
+        int slash = glob.lastIndexOf('/', firstGlob);
+        Path base = Paths.get(".");
+        if (slash >= 0) {
+            base = Paths.get(glob.substring(0, slash + 1));
+        }
+        PathMatcher matcher = FileSystems.getDefault()
+                .getPathMatcher("glob:" + glob.substring(slash + 1));
+        Path root = base;
+
+        List<Path> result = new ArrayList<>();
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> walk = Files.walk(root)) {
+                result = walk.filter(Files::isRegularFile)
+                        .filter(p -> matcher.matches(root.relativize(p)))
+                        .map(p -> slashRelative(root, p, glob))
+                        .sorted().collect(Collectors.toList());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports a matched file as written relative to the glob's directory.
+     *
+     * @param root
+     *            the glob's directory
+     * @param file
+     *            the matched file
+     * @param glob
+     *            the glob
+     * @return the file, with the same prefix as the glob
+     */
+    private static Path slashRelative(Path root, Path file, String glob) {
+        Path result = file;
+        if (glob.lastIndexOf('/') < 0) {
+            result = root.relativize(file);
+        }
+        return result;
+    }
+
+}
@@ -4,13 +4,21 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * This program can sort the words first in decreasing order of count (to find
@@ -51,13 +59,26 @@ public final class TagcloudGenerator {
     }
 
     /**
-     * Separator char setting.
+     * Separator char setting, the separators of {@link SeparatorSet#DEFAULT}.
      */
-    private static final String CHAR_SEPARATOR = "\"\t\n\r, `-.!?[]';:/()*\\_";
+    static final String CHAR_SEPARATOR = "\"\t\n\r, `-.!?[]';:/()*\\_";
     /**
-     * Words that not count into Tagcloud.
+     * Initial number of chars read from the input at a time.
      */
-    private static final String[] SIMPLE_WORD = { "and", "a", "the" };
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Largest number of bytes of a file mapped at a time.
+     */
+    private static final int MAP_WINDOW = 1 << 30;
+    /**
+     * Largest number of bytes counted by one parallel task.
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+    /**
+     * Words that not count into Tagcloud, the words of
+     * {@link StopWords#DEFAULT}.
+     */
+    static final String[] SIMPLE_WORD = { "and", "a", "the" };
 
     /**
      * The smallest font size for tag cloud.
@@ -71,16 +92,14 @@ public final class TagcloudGenerator {
     /**
      * alphabetical order.
      */
-    private static class AlphaOrder
-            implements Comparator<Map.Entry<String, Integer>> {
+    private static class AlphaOrder implements Comparator<WordCount> {
 
         @Override
-        public int compare(Entry<String, Integer> word1,
-                Entry<String, Integer> word2) {
-            int result = word1.getKey().toLowerCase()
-                    .compareTo(word2.getKey().toLowerCase());
+        public int compare(WordCount word1, WordCount word2) {
+            int result = word1.getFoldedWord()
+                    .compareTo(word2.getFoldedWord());
             if (result == 0) {
-                result = word2.getValue().compareTo(word1.getValue());
+                result = Integer.compare(word2.getCount(), word1.getCount());
             }
             return result;
         }
@@ -88,20 +107,100 @@ public final class TagcloudGenerator {
     }
 
     /**
-     * count order.
+     * Counts the words of a byte range, splitting it in two at a separator
+     * while it is larger than {@link #CHUNK_SIZE}. Partial counts keep the
+     * order in which words first occur, so merging the halves left to right
+     * gives the same table as counting the whole range sequentially.
      */
-    private static class CountOrder
-            implements Comparator<Map.Entry<String, Integer>> {
+    private static final class CountTask
+            extends RecursiveTask<CaseVariantTable> {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Bytes being counted.
+         */
+        private final transient ByteBuffer bytes;
+
+        /**
+         * First position of the range.
+         */
+        private final int from;
+
+        /**
+         * End (exclusive) of the range.
+         */
+        private final int to;
+
+        /**
+         * Encoding of the bytes.
+         */
+        private final transient Charset charset;
+
+        /**
+         * Characters that separate words.
+         */
+        private final transient SeparatorSet separators;
+
+        /**
+         * Words that are not counted.
+         */
+        private final transient StopWords stopWords;
+
+        /**
+         * Constructor.
+         *
+         * @param bytes
+         *            bytes being counted
+         * @param from
+         *            first position of the range
+         * @param to
+         *            end (exclusive) of the range
+         * @param charset
+         *            encoding of the bytes
+         * @param separators
+         *            characters that separate words
+         * @param stopWords
+         *            words that are not counted
+         */
+        CountTask(ByteBuffer bytes, int from, int to, Charset charset,
+                SeparatorSet separators, StopWords stopWords) {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            this.charset = charset;
+            this.separators = separators;
+            this.stopWords = stopWords;
+        }
 
         @Override
-        public int compare(Entry<String, Integer> word1,
-                Entry<String, Integer> word2) {
-            int result = word2.getValue().compareTo(word1.getValue());
-            if (result == 0) {
-                result = word1.getKey().toLowerCase()
-                        .compareTo(word2.getKey().toLowerCase());
+        protected CaseVariantTable compute() {
+            ByteTokenizer tokenizer = new ByteTokenizer(this.separators,
+                    this.charset);
+            int middle = this.from + (this.to - this.from) / 2;
+            while (middle < this.to
+                    && !tokenizer.isSeparator(this.bytes.get(middle))) {
+                middle++;
             }
 
+            CaseVariantTable result;
+            if (this.to - this.from <= CHUNK_SIZE || middle == this.to) {
+                result = new CaseVariantTable();
+                countRange(tokenizer, this.stopWords, this.bytes, this.from,
+                        this.to, result);
+            } else {
+                CountTask left = new CountTask(this.bytes, this.from, middle,
+                        this.charset, this.separators, this.stopWords);
+                CountTask right = new CountTask(this.bytes, middle, this.to,
+                        this.charset, this.separators, this.stopWords);
+                left.fork();
+                CaseVariantTable rightWords = right.compute();
+                result = left.join();
+                result.addAll(rightWords);
+            }
             return result;
         }
 
@@ -121,58 +220,438 @@ public final class TagcloudGenerator {
      */
     public static void countWordFromInput(BufferedReader textInput,
             Map<String, Integer> words) throws IOException {
-        String line = null;
-        Map<String, Integer> mergeCase = new HashMap<String, Integer>();
-        line = textInput.readLine();
+        CaseVariantTable counted = new CaseVariantTable();
+        countWordFromInput(textInput, counted);
+        for (int i = 0; i < counted.size(); i++) {
+            words.put(counted.word(i), counted.count(i));
+        }
+    }
 
-        while (line != null) {
+    /**
+     * Count the time each word appears in the TXT file.
+     *
+     * @param textInput
+     *            SimpleReader with TXT stream
+     * @param words
+     *            A table that stores all words with number appear in the txt
+     *            file
+     * @throws IOException
+     *             file reading error
+     * @requires |words|=0
+     * @ensure words = all words from in
+     */
+    public static void countWordFromInput(BufferedReader textInput,
+            CaseVariantTable words) throws IOException {
+        countWordFromInput(textInput, SeparatorSet.DEFAULT, StopWords.DEFAULT,
+                words);
+    }
 
-            int position = 0;
-            while (line.length() > position) {
-                String word = readNextWordOrSep(line, position);
+    /**
+     * Count the time each word appears in the TXT file, splitting words at
+     * the given separators and leaving out the given stop words.
+     *
+     * @param textInput
+     *            SimpleReader with TXT stream
+     * @param separators
+     *            the characters that separate words
+     * @param stopWords
+     *            the words that are not counted
+     * @param words
+     *            A sink that receives all words of the txt file
+     * @throws IOException
+     *             file reading error
+     * @ensure words = all words from in
+     */
+    public static void countWordFromInput(BufferedReader textInput,
+            SeparatorSet separators, StopWords stopWords, WordSink words)
+            throws IOException {
+        countWordFromReader(textInput, new WordTokenizer(separators),
+                new char[BUFFER_SIZE], stopWords, words);
+    }
 
-                if (!(isSeparator(word.charAt(0)) || isSimpleWord(word))) {
-                    if (words.containsKey(word)) {
-                        words.replace(word, words.get(word) + 1);
-                    } else {
-                        words.put(word, 1);
+    /**
+     * Count the words of a reader with a tokenizer and a buffer that may be
+     * reused across calls.
+     *
+     * @param textInput
+     *            the reader
+     * @param tokenizer
+     *            tokenizer used to find the words
+     * @param buffer
+     *            buffer the text is read into
+     * @param stopWords
+     *            the words that are not counted
+     * @param words
+     *            A sink that receives all words of the reader
+     * @return the buffer, or a larger one if a word did not fit in it
+     * @throws IOException
+     *             reading error
+     * @requires |buffer| > 0
+     * @ensure words = all words from textInput
+     */
+    static char[] countWordFromReader(Reader textInput,
+            WordTokenizer tokenizer, char[] buffer, StopWords stopWords,
+            WordSink words) throws IOException {
+        assert buffer.length > 0 : "Violation of: |buffer| > 0";
+        int kept = 0;
+        boolean eof = false;
+
+        while (!eof) {
+            int read = textInput.read(buffer, kept, buffer.length - kept);
+            eof = read == -1;
+            int limit = kept + Math.max(read, 0);
+            kept = 0;
+
+            tokenizer.reset(buffer, 0, limit);
+            while (tokenizer.next()) {
+                if (tokenizer.isWord()) {
+                    int start = tokenizer.start();
+                    int end = tokenizer.end();
+                    if (end == limit && !eof) { //may continue in next read
+                        kept = end - start;
+                        if (kept == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                        } else {
+                            System.arraycopy(buffer, start, buffer, 0, kept);
+                        }
+                    } else if (!stopWords.contains(buffer, start, end)) {
+                        words.add(buffer, start, end);
                     }
                 }
-                position += word.length();
             }
-            line = textInput.readLine();
+        }
+        return buffer;
+    }
+
+    /**
+     * Count the time each word appears in a file by memory-mapping it and
+     * scanning the mapped bytes directly, without decoding the file into
+     * lines.
+     *
+     * @param input
+     *            path of the file to count
+     * @param charset
+     *            encoding of the file: UTF-8, ISO-8859-1 or US-ASCII
+     * @param words
+     *            A table that stores all words with number appear in the file
+     * @throws IOException
+     *             file reading error
+     * @requires |words|=0
+     * @ensure words = all words from input
+     */
+    public static void countWordFromFile(Path input, Charset charset,
+            CaseVariantTable words) throws IOException {
+        countWordFromFile(input, charset, SeparatorSet.DEFAULT,
+                StopWords.DEFAULT, words);
+    }
 
+    /**
+     * Count the time each word appears in a file by memory-mapping it,
+     * splitting words at the given separators and leaving out the given stop
+     * words.
+     *
+     * @param input
+     *            path of the file to count
+     * @param charset
+     *            encoding of the file: UTF-8, ISO-8859-1 or US-ASCII
+     * @param separators
+     *            the characters that separate words
+     * @param stopWords
+     *            the words that are not counted
+     * @param words
+     *            A sink that receives all words of the file
+     * @throws IOException
+     *             file reading error
+     * @ensure words = all words from input
+     */
+    public static void countWordFromFile(Path input, Charset charset,
+            SeparatorSet separators, StopWords stopWords, WordSink words)
+            throws IOException {
+        countWordFromFile(input, new ByteTokenizer(separators, charset),
+                stopWords, words);
+    }
+
+    /**
+     * Count the words of a file with a tokenizer that may be reused across
+     * calls.
+     *
+     * @param input
+     *            path of the file to count
+     * @param tokenizer
+     *            tokenizer used to find the words
+     * @param stopWords
+     *            the words that are not counted
+     * @param words
+     *            A sink that receives all words of the file
+     * @throws IOException
+     *             file reading error
+     * @ensure words = all words from input
+     */
+    static void countWordFromFile(Path input, ByteTokenizer tokenizer,
+            StopWords stopWords, WordSink words) throws IOException {
+        assert input != null : "Violation of: input is not null";
+        try (FileChannel channel = FileChannel.open(input,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(size - position, MAP_WINDOW);
+                MappedByteBuffer bytes = channel.map(MapMode.READ_ONLY,
+                        position, length);
+                int end = length;
+                if (position + length < size) {
+                    end = lastSeparatorEnd(bytes, tokenizer, length);
+                }
+                countRange(tokenizer, stopWords, bytes, 0, end, words);
+                position += end;
+            }
         }
+    }
 
-        for (String x : words.keySet()) {
-            String upperX = x.substring(0, 1).toUpperCase() + x.substring(1);
-            String lowerX = x.toLowerCase();
-            int num = words.get(x);
-            if (words.containsKey(upperX) && words.containsKey(lowerX)) {
-                num = words.get(upperX) + words.get(upperX);
-                if (words.get(upperX) > words.get(upperX)) {
-                    if (!mergeCase.containsKey(upperX)) {
-                        mergeCase.put(upperX, num);
-                    }
+    /**
+     * Count exactly the words of a file that may be among its most frequent,
+     * in two passes: the first fills {@code sketch} and picks its candidate
+     * words, the second counts the candidates, and only them, into
+     * {@code words}. Memory depends on the number of candidates rather than
+     * on the vocabulary of the file.
+     *
+     * @param input
+     *            path of the file to count
+     * @param charset
+     *            encoding of the file: UTF-8, ISO-8859-1 or US-ASCII
+     * @param separators
+     *            the characters that separate words
+     * @param stopWords
+     *            the words that are not counted
+     * @param sketch
+     *            the sketch choosing the candidates
+     * @param words
+     *            A table that stores the candidates with number appear in the
+     *            file
+     * @throws IOException
+     *             file reading error
+     * @requires |words|=0 and sketch is empty
+     * @ensure words = the candidates of sketch, counted exactly
+     */
+    public static void countTopWordsFromFile(Path input, Charset charset,
+            SeparatorSet separators, StopWords stopWords,
+            CountMinSketch sketch, CaseVariantTable words)
+            throws IOException {
+        countWordFromFile(input, charset, separators, stopWords, sketch);
+        countWordFromFile(input, charset, separators, stopWords,
+                sketch.candidatesOf(words));
+    }
 
-                } else {
-                    if (!mergeCase.containsKey(lowerX)) {
-                        mergeCase.put(lowerX, num);
-                    }
+    /**
+     * Count the time each word appears in a file, splitting the file into
+     * ranges that are counted in parallel and then merged. The result is the
+     * same as {@link #countWordFromFile(Path, Charset, CaseVariantTable)}.
+     *
+     * @param input
+     *            path of the file to count
+     * @param charset
+     *            encoding of the file: UTF-8, ISO-8859-1 or US-ASCII
+     * @param parallelism
+     *            number of threads used for counting
+     * @param words
+     *            A table that stores all words with number appear in the file
+     * @throws IOException
+     *             file reading error
+     * @requires |words|=0 and parallelism > 0
+     * @ensure words = all words from input
+     */
+    public static void countWordFromFile(Path input, Charset charset,
+            int parallelism, CaseVariantTable words) throws IOException {
+        countWordFromFile(input, charset, SeparatorSet.DEFAULT,
+                StopWords.DEFAULT, parallelism, words);
+    }
+
+    /**
+     * Count the time each word appears in a file in parallel, splitting
+     * words at the given separators and leaving out the given stop words.
+     *
+     * @param input
+     *            path of the file to count
+     * @param charset
+     *            encoding of the file: UTF-8, ISO-8859-1 or US-ASCII
+     * @param separators
+     *            the characters that separate words
+     * @param stopWords
+     *            the words that are not counted
+     * @param parallelism
+     *            number of threads used for counting
+     * @param words
+     *            A table that stores all words with number appear in the file
+     * @throws IOException
+     *             file reading error
+     * @requires |words|=0 and parallelism > 0
+     * @ensure words = all words from input
+     */
+    public static void countWordFromFile(Path input, Charset charset,
+            SeparatorSet separators, StopWords stopWords, int parallelism,
+            CaseVariantTable words) throws IOException {
+        assert parallelism > 0 : "Violation of: parallelism > 0";
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            countWordFromFile(input, charset, separators, stopWords, pool,
+                    words);
+        } finally {
+            pool.shutdown();
+        }
+    }
 
+    /**
+     * Count the time each word appears in a file on the threads of a given
+     * pool, which is left running.
+     *
+     * @param input
+     *            path of the file to count
+     * @param charset
+     *            encoding of the file: UTF-8, ISO-8859-1 or US-ASCII
+     * @param separators
+     *            the characters that separate words
+     * @param stopWords
+     *            the words that are not counted
+     * @param pool
+     *            the threads counting
+     * @param words
+     *            A table that stores all words with number appear in the file
+     * @throws IOException
+     *             file reading error
+     * @requires |words|=0
+     * @ensure words = all words from input
+     */
+    static void countWordFromFile(Path input, Charset charset,
+            SeparatorSet separators, StopWords stopWords, ForkJoinPool pool,
+            CaseVariantTable words) throws IOException {
+        assert input != null : "Violation of: input is not null";
+        assert pool != null : "Violation of: pool is not null";
+        ByteTokenizer tokenizer = new ByteTokenizer(separators, charset);
+        try (FileChannel channel = FileChannel.open(input,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(size - position, MAP_WINDOW);
+                MappedByteBuffer bytes = channel.map(MapMode.READ_ONLY,
+                        position, length);
+                int end = length;
+                if (position + length < size) {
+                    end = lastSeparatorEnd(bytes, tokenizer, length);
                 }
-            } else {
-                mergeCase.put(x, num);
+                words.addAll(
+                        pool.invoke(new CountTask(bytes, 0, end, charset,
+                                separators, stopWords)));
+                position += end;
             }
         }
-        words.clear();
-        words.putAll(mergeCase);
+    }
 
+    /**
+     * Count the time each word appears in bytes already in memory, splitting
+     * words at the given separators and leaving out the given stop words.
+     *
+     * @param bytes
+     *            the bytes to count, from position to limit
+     * @param charset
+     *            encoding of the bytes: UTF-8, ISO-8859-1 or US-ASCII
+     * @param separators
+     *            the characters that separate words
+     * @param stopWords
+     *            the words that are not counted
+     * @param words
+     *            A sink that receives all words of the bytes
+     * @ensure words = all words from bytes
+     */
+    static void countWordFromBytes(ByteBuffer bytes, Charset charset,
+            SeparatorSet separators, StopWords stopWords, WordSink words) {
+        countWordFromBytes(bytes, new ByteTokenizer(separators, charset),
+                stopWords, words);
+    }
+
+    /**
+     * Count the words of the bytes from position to limit with a tokenizer
+     * that may be reused across calls. The position of {@code bytes} is not
+     * changed.
+     *
+     * @param bytes
+     *            the bytes to count
+     * @param tokenizer
+     *            tokenizer used to find the words
+     * @param stopWords
+     *            the words that are not counted
+     * @param words
+     *            A sink that receives all words of the bytes
+     * @ensure words = all words from bytes
+     */
+    static void countWordFromBytes(ByteBuffer bytes, ByteTokenizer tokenizer,
+            StopWords stopWords, WordSink words) {
+        assert bytes != null : "Violation of: bytes is not null";
+        countRange(tokenizer, stopWords, bytes, bytes.position(),
+                bytes.limit(), words);
+    }
+
+    /**
+     * Count the words in {@code bytes[from, to)}.
+     *
+     * @param tokenizer
+     *            tokenizer used to find the words
+     * @param stopWords
+     *            the words that are not counted
+     * @param bytes
+     *            the bytes to scan
+     * @param from
+     *            the first position to scan
+     * @param to
+     *            the end (exclusive) of the region to scan
+     * @param words
+     *            the sink the words are added to
+     */
+    private static void countRange(ByteTokenizer tokenizer,
+            StopWords stopWords, ByteBuffer bytes, int from, int to,
+            WordSink words) {
+        tokenizer.reset(bytes, from, to);
+        while (tokenizer.nextWord()) {
+            char[] word = tokenizer.chars();
+            if (!stopWords.contains(word, 0, tokenizer.length())) {
+                words.add(word, 0, tokenizer.length());
+            }
+        }
+    }
+
+    /**
+     * Find where the last word of a mapped window may safely end, so a word
+     * that continues into the next window is not cut in two.
+     *
+     * @param bytes
+     *            the mapped window
+     * @param tokenizer
+     *            tokenizer that knows the separators
+     * @param length
+     *            number of mapped bytes
+     * @return position just after the last separator of the window, or
+     *         {@code length} if the window has no separator
+     */
+    private static int lastSeparatorEnd(ByteBuffer bytes,
+            ByteTokenizer tokenizer, int length) {
+        int end = length;
+        while (end > 0 && !tokenizer.isSeparator(bytes.get(end - 1))) {
+            end--;
+        }
+        if (end == 0) {
+            end = length;
+        }
+        return end;
     }
 
     /**
      * Return a string of a word or a String consecutive separator.
      *
+     * <p>
+     * Kept as the reference implementation; {@link #countWordFromInput} scans
+     * the input with {@link WordTokenizer} instead, which reports tokens by
+     * offset rather than building them one char at a time.
+     *
      * @param str
      *            Line String
      * @param position
@@ -201,38 +680,21 @@ public final class TagcloudGenerator {
     }
 
     /**
-     * put those in a SortingMachine that sorts them in decreasing order of
-     * count; then remove the top N in order from the first SortingMachine and
-     * put them into a second SortingMachine that sorts them in alphabetical
-     * order of word.(SortingMachine will be output in ExtractionMode).
+     * Select the N words with the highest count with a bounded heap, without
+     * sorting the whole vocabulary; then sort only those N words in
+     * alphabetical order.
      *
      * @param dic
-     *            the Map saving all words and times of appearance.
+     *            the counts of all words and times of appearance.
      * @param num
-     *            the number of SortingMachine after resize.
-     * @return the resized SortingMachine with alphabetic order.
+     *            the number of words to keep.
+     * @return the N words with the highest count, in alphabetic order.
      * @requires n>0
      */
-    private static List<Map.Entry<String, Integer>> sortAndResize(
-            Map<String, Integer> dic, int num) {
+    static List<WordCount> sortAndResize(WordCounts dic, int num) {
         assert dic != null : "Violation of: dic is not null";
         assert num > 0 : "Violation of num > 0.";
-        int resize = num;
-        if (resize > dic.size()) {
-            resize = dic.size();
-        }
-        List<Map.Entry<String, Integer>> countSort = new ArrayList<>();
-        List<Map.Entry<String, Integer>> wordSort = new ArrayList<>();
-
-        for (Map.Entry<String, Integer> entry : dic.entrySet()) {
-            countSort.add(entry);
-        }
-        countSort.sort(new CountOrder());
-        for (int i = 0; i < resize; i++) {
-
-            Map.Entry<String, Integer> pair = countSort.remove(0);
-            wordSort.add(pair);
-        }
+        List<WordCount> wordSort = TopWords.select(dic, num);
         wordSort.sort(new AlphaOrder());
         return wordSort;
     }
@@ -246,12 +708,7 @@ public final class TagcloudGenerator {
      */
     public static boolean isSeparator(Character c) {
         assert c != null : "Violation of: c is not null.";
-        boolean result = true;
-        if (CHAR_SEPARATOR.indexOf(c) == -1) {
-            result = false;
-        }
-
-        return result;
+        return SeparatorSet.DEFAULT.isSeparator(c.charValue());
     }
 
     /**
@@ -263,14 +720,7 @@ public final class TagcloudGenerator {
      */
     public static boolean isSimpleWord(String c) {
         assert c != null : "Violation of: c is not null.";
-        boolean result = false;
-        for (String x : SIMPLE_WORD) {
-            if (c.equals(x) || c.length() == 1) {
-                result = true;
-            }
-        }
-
-        return result;
+        return StopWords.DEFAULT.contains(c);
     }
 
     /**
@@ -347,32 +797,50 @@ public final class TagcloudGenerator {
     }
 
     /**
-     * Generate tag cloud in HTML.
+     * Reports the font size of a word: the smallest for the lowest count,
+     * the largest for the highest, and in proportion in between.
+     *
+     * @param count
+     *            the count of the word
+     * @param lowest
+     *            the lowest count of the cloud
+     * @param highest
+     *            the highest count of the cloud
+     * @return the font size, the number of its class {@code f11}-{@code f37}
+     * @requires lowest <= count <= highest
+     */
+    static int fontSize(int count, int lowest, int highest) {
+        int fNum = FONT_SIZE_SMALLEST;
+        if (highest != lowest) {
+            double ratio = (count - lowest) / ((highest - lowest) * 1.0);
+            fNum = (int) (FONT_SIZE_SMALLEST
+                    + (ratio * (FONT_SIZE_DIFFERENCE)));
+        }
+        return fNum;
+    }
+
+    /**
+     * Generate tag cloud in HTML. {@link HtmlRenderer} writes the same page
+     * straight into bytes.
      *
      * @param textOutput
      *            file to be output
      * @param sorted
-     *            Sorted SortingMachine
+     *            Sorted SortingMachine, not changed
      * @param inputPath
      *            Name of the given input file
      */
 
-    private static void generateTagCloud(PrintWriter textOutput,
-            List<Entry<String, Integer>> sorted, String inputPath) {
+    static void generateTagCloud(PrintWriter textOutput,
+            List<WordCount> sorted, String inputPath) {
         assert sorted != null : "Violation of: sortedDic is not null.";
         assert textOutput != null : "Violation of: out is not null.";
-        int fNum;
-
-        int highest = 0;
-        int lowest = 0;
-        for (Map.Entry<String, Integer> entry : sorted) {
-            if (lowest == 0) {
-                lowest = entry.getValue();
-            } else if (entry.getValue() > highest) {
-                highest = entry.getValue();
-            } else if (entry.getValue() < lowest) {
-                lowest = entry.getValue();
-            }
+
+        int highest = Integer.MIN_VALUE;
+        int lowest = Integer.MAX_VALUE;
+        for (WordCount entry : sorted) {
+            highest = Math.max(highest, entry.getCount());
+            lowest = Math.min(lowest, entry.getCount());
         }
 
         textOutput.println("<html>");
@@ -393,20 +861,11 @@ public final class TagcloudGenerator {
         textOutput.println("<hr>");
         textOutput.println("<div class=\"cdiv\">");
         textOutput.println("<p class=\"cbox\">");
-        while (sorted.size() > 0) {
-            Map.Entry<String, Integer> entry = sorted.remove(0);
-            if (highest != lowest) {
-                double ratio = (entry.getValue() - lowest)
-                        / ((highest - lowest) * 1.0);
-                fNum = (int) (FONT_SIZE_SMALLEST
-                        + (ratio * (FONT_SIZE_DIFFERENCE)));
-            } else {
-                fNum = FONT_SIZE_SMALLEST;
-            }
-
+        for (WordCount entry : sorted) {
+            int fNum = fontSize(entry.getCount(), lowest, highest);
             textOutput.println("<span style=\"cursor:default\" class=\"f" + fNum
-                    + "\" title=\"count:" + entry.getValue() + "\">"
-                    + entry.getKey() + "</span>");
+                    + "\" title=\"count:" + entry.getCount() + "\">"
+                    + entry.getWord() + "</span>");
         }
         textOutput.println("</p>");
         textOutput.println("</div>");
@@ -416,13 +875,118 @@ public final class TagcloudGenerator {
     }
 
     /**
-     * Main method.
+     * Generate the words of a tag cloud and their counts in JSON, in the
+     * order given: {@code {"name":..., "words":[{"word":..., "count":...,
+     * "error":...}]}}, the error being most by which the count is too high
+     * (0 unless counted with {@code --approximate}).
+     *
+     * @param out
+     *            the output
+     * @param sorted
+     *            the words
+     * @param name
+     *            the name of the text
+     */
+    static void generateJson(PrintWriter out, List<WordCount> sorted,
+            String name) {
+        out.print("{\"name\":");
+        jsonString(out, name);
+        out.print(",\"words\":[");
+        String comma = "";
+        for (WordCount entry : sorted) {
+            out.print(comma);
+            out.print("{\"word\":");
+            jsonString(out, entry.getWord());
+            out.print(",\"count\":");
+            out.print(entry.getCount());
+            out.print(",\"error\":");
+            out.print(entry.getError());
+            out.print('}');
+            comma = ",";
+        }
+        out.println("]}");
+    }
+
+    /**
+     * Generate the words of a tag cloud and their counts in CSV (RFC 4180),
+     * in the order given: a {@code word,count,error} header, then one record
+     * per word, the error being most by which the count is too high (0
+     * unless counted with {@code --approximate}). A word holding a comma, a
+     * quote or a line break is quoted.
+     *
+     * @param out
+     *            the output
+     * @param sorted
+     *            the words
+     */
+    static void generateCsv(PrintWriter out, List<WordCount> sorted) {
+        out.print("word,count,error\r\n");
+        for (WordCount entry : sorted) {
+            String word = entry.getWord();
+            boolean quoted = false;
+            for (int i = 0; i < word.length() && !quoted; i++) {
+                char c = word.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (quoted) {
+                out.print('"');
+                for (int i = 0; i < word.length(); i++) {
+                    char c = word.charAt(i);
+                    if (c == '"') {
+                        out.print('"');
+                    }
+                    out.print(c);
+                }
+                out.print('"');
+            } else {
+                out.print(word);
+            }
+            out.print(',');
+            out.print(entry.getCount());
+            out.print(',');
+            out.print(entry.getError());
+            out.print("\r\n");
+        }
+    }
+
+    /**
+     * Write a JSON string.
+     *
+     * @param out
+     *            the output
+     * @param s
+     *            the string
+     */
+    private static void jsonString(PrintWriter out, String s) {
+        out.print('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.print('\\');
+                out.print(c);
+            } else if (c < ' ') {
+                out.printf("\\u%04x", (int) c);
+            } else {
+                out.print(c);
+            }
+        }
+        out.print('"');
+    }
+
+    /**
+     * Main method. With arguments, runs {@link TagcloudCli} over them and
+     * exits with its status; without, asks for the input, the output and the
+     * number of words.
      *
      * @param args
      *            the command line arguments
      */
     public static void main(String[] args) {
 
+        if (args.length > 0) {
+            System.exit(TagcloudCli.run(args));
+        }
+
         /*
          * Declare variable
          */
@@ -453,7 +1017,7 @@ public final class TagcloudGenerator {
         System.out.println("Loading......couting");
         System.out.println();
 
-        Map<String, Integer> words = new HashMap<String, Integer>();
+        CaseVariantTable words = new CaseVariantTable();
         try {
             countWordFromInput(textInput, words);
         } catch (IOException e3) {
@@ -518,7 +1082,7 @@ public final class TagcloudGenerator {
          * Sort words and generate HTML
          */
         System.out.println("Loading......sorting");
-        List<Map.Entry<String, Integer>> sorted = sortAndResize(words, num);
+        List<WordCount> sorted = sortAndResize(words, num);
 
         System.out.println("Loading......generating");
         generateTagCloud(textOutput, sorted, inputFile);
@@ -0,0 +1,677 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP service generating tag clouds, for running as a long-lived process
+ * instead of starting a JVM per cloud.
+ *
+ * <pre>
+ * POST /cloud?n=N&amp;format=FORMAT&amp;name=NAME   (body: the text)
+ * GET  /cloud?path=PATH&amp;n=N&amp;format=FORMAT  (a file under the root)
+ * GET  /stats
+ * </pre>
+ *
+ * N defaults to the N of the command line, and the format to HTML, as written
+ * by {@link TagcloudGenerator#generateTagCloud}; JSON, CSV and binary (see
+ * {@link CloudFormat}) list the same words, in the same order, with their
+ * counts, and SVG lays them out as an image (see {@link SvgLayout}). An
+ * uploaded text is counted as it arrives, never held in memory whole, and
+ * is refused with 413 past {@link #MAX_UPLOAD} bytes. A
+ * PATH is relative to the root directory given at start, and may not lead
+ * out of it; without a root, only uploads are accepted. {@code /stats}
+ * reports the number of requests, a histogram of their latencies (see
+ * {@link LatencyHistogram}) and, if there is one, the counters of the
+ * {@link TagcloudCache}.
+ *
+ * <p>
+ * Each request runs on its own virtual thread when the JVM has them (Java
+ * 21), and otherwise on a pooled platform thread. At most a given number of
+ * clouds are generated at the same time; a request past that is answered at
+ * once with 503 rather than queued. A file named by PATH is looked up in the
+ * cache before it is counted; an upload can only be hashed as it is read, so
+ * for an upload the cache saves sorting and rendering. A request that fails
+ * for any other reason is answered with 500; every failed request is
+ * counted in the errors of {@code /stats}.
+ *
+ * @author Lucas Wu
+ */
+public final class TagcloudServer {
+
+    /**
+     * Bytes of the response to a rejected request.
+     */
+    private static final byte[] BUSY = "Too many requests\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Names accepted for an uploaded text.
+     */
+    private static final Pattern NAME = Pattern.compile("[\\w.-]{1,100}");
+
+    /**
+     * Name of an uploaded text without a name.
+     */
+    private static final String UPLOAD = "upload";
+
+    /**
+     * Largest N a request may ask for.
+     */
+    private static final int MAX_TOP = 1_000_000;
+
+    /**
+     * Bytes read from an upload at a time.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest upload accepted, in bytes.
+     */
+    static final long MAX_UPLOAD = 64L * 1024 * 1024;
+
+    /**
+     * An upload of more than {@link #MAX_UPLOAD} bytes.
+     */
+    private static final class UploadTooLarge extends IOException {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor.
+         */
+        UploadTooLarge() {
+            super("Uploads are limited to " + MAX_UPLOAD + " bytes");
+        }
+
+    }
+
+    /**
+     * A request body that throws {@link UploadTooLarge} as soon as more than
+     * {@link #MAX_UPLOAD} bytes have been read from it.
+     */
+    private static final class LimitedBody extends FilterInputStream {
+
+        /**
+         * Bytes that may still be read.
+         */
+        private long remaining = MAX_UPLOAD;
+
+        /**
+         * Constructor.
+         *
+         * @param body
+         *            the request body
+         */
+        LimitedBody(InputStream body) {
+            super(body);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) {
+                this.consume(1);
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                this.consume(result);
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            this.consume(result);
+            return result;
+        }
+
+        /**
+         * Count bytes read.
+         *
+         * @param n
+         *            the number of bytes
+         * @throws UploadTooLarge
+         *             if more than {@link #MAX_UPLOAD} bytes have been read
+         */
+        private void consume(long n) throws UploadTooLarge {
+            this.remaining -= n;
+            if (this.remaining < 0) {
+                throw new UploadTooLarge();
+            }
+        }
+
+    }
+
+    /**
+     * The options of the command line.
+     */
+    private final TagcloudCli.Options options;
+
+    /**
+     * Directory the files named by PATH are in, or null.
+     */
+    private final Path root;
+
+    /**
+     * Number of clouds generated at the same time at most.
+     */
+    private final int maxConcurrent;
+
+    /**
+     * Permits for generating a cloud.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Threads handling the requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Counted down when the server stops.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Latencies of the cloud requests.
+     */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * Number of cloud requests.
+     */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Number of cloud requests rejected for lack of a permit.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Number of cloud requests that failed.
+     */
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Constructor. The server does not accept requests until started.
+     *
+     * @param options
+     *            the options of the command line: N, charset, separators,
+     *            stop words and cache
+     * @param address
+     *            the address to listen on
+     * @param root
+     *            directory of the files that may be named by PATH, or null
+     * @param maxConcurrent
+     *            number of clouds generated at the same time
+     * @throws IOException
+     *             if the address cannot be bound
+     */
+    TagcloudServer(TagcloudCli.Options options, InetSocketAddress address,
+            Path root, int maxConcurrent) throws IOException {
+        assert maxConcurrent > 0 : "Violation of: maxConcurrent > 0";
+        this.options = options;
+        this.root = root == null ? null : root.toRealPath();
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+        this.server = HttpServer.create(address, 0);
+        this.executor = newExecutor();
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/cloud", this::handleCloud);
+        this.server.createContext("/stats", this::handleStats);
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Reports the address the server listens on.
+     *
+     * @return the address
+     */
+    public InetSocketAddress address() {
+        return this.server.getAddress();
+    }
+
+    /**
+     * Stop accepting requests, wait up to a second for those in progress and
+     * release the threads.
+     */
+    public void stop() {
+        this.server.stop(1);
+        this.executor.shutdown();
+        this.stopped.countDown();
+    }
+
+    /**
+     * Wait until the server is stopped.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void awaitStop() throws InterruptedException {
+        this.stopped.await();
+    }
+
+    /**
+     * Handle a cloud request.
+     *
+     * @param exchange
+     *            the request and its response
+     */
+    private void handleCloud(HttpExchange exchange) {
+        long start = System.nanoTime();
+        this.requests.incrementAndGet();
+        try (exchange) {
+            if (!this.permits.tryAcquire()) {
+                this.rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, "text/plain; charset=UTF-8", BUSY);
+                return;
+            }
+            try {
+                this.cloud(exchange);
+            } catch (IllegalArgumentException e) {
+                this.errors.incrementAndGet();
+                sendText(exchange, 400, e.getMessage());
+            } catch (SecurityException | NoSuchFileException e) {
+                this.errors.incrementAndGet();
+                sendText(exchange, 404, "No such file");
+            } catch (UploadTooLarge e) {
+                this.errors.incrementAndGet();
+                sendText(exchange, 413, e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                this.errors.incrementAndGet();
+                sendText(exchange, 500, e.toString());
+            } finally {
+                this.permits.release();
+            }
+        } catch (IOException e) {
+            // the client went away; nothing more to send
+            this.errors.incrementAndGet();
+        } finally {
+            this.latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Generate the cloud of a request and send it.
+     *
+     * @param exchange
+     *            the request and its response
+     * @throws IOException
+     *             if the text cannot be read or the response sent
+     */
+    private void cloud(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange.getRequestURI()
+                .getRawQuery());
+        int top = this.options.top();
+        if (query.containsKey("n")) {
+            top = number(query.get("n"));
+        }
+        CloudFormat format = CloudFormat.named(
+                query.getOrDefault("format", "html"));
+
+        String method = exchange.getRequestMethod();
+        String name;
+        String hash;
+        Path file = null;
+        String stamp = null;
+        List<WordCount> sorted = null;
+        byte[] cloud;
+        if (method.equals("POST")) {
+            name = query.getOrDefault("name", UPLOAD);
+            if (!NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException("Bad name: " + name);
+            }
+            String length = exchange.getRequestHeaders()
+                    .getFirst("Content-Length");
+            if (length != null && Long.parseLong(length) > MAX_UPLOAD) {
+                throw new UploadTooLarge();
+            }
+            CaseVariantTable words = new CaseVariantTable();
+            hash = this.countUpload(new LimitedBody(exchange.getRequestBody()),
+                    words);
+            cloud = this.cached(hash, top, format, name);
+            if (cloud == null) {
+                sorted = TagcloudCli.sorted(words, top);
+            }
+        } else if (method.equals("GET") && query.containsKey("path")) {
+            name = query.get("path");
+            file = this.resolve(name);
+            stamp = TagcloudCache.stamp(file);
+            hash = TagcloudCache.contentHash(file);
+            cloud = this.cached(hash, top, format, name);
+            if (cloud == null) {
+                // the same pipeline as a file of the command line
+                sorted = TagcloudCli.topWords(this.options, file, top);
+            }
+        } else {
+            throw new IllegalArgumentException(
+                    "POST a text, or GET with a path");
+        }
+
+        if (cloud == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            format.renderer().render(sorted, name, buffer);
+            cloud = buffer.toByteArray();
+            TagcloudCache cache = this.options.cache();
+            // a file may have changed since it was hashed
+            if (cache != null && (file == null
+                    || stamp.equals(TagcloudCache.stamp(file)))) {
+                cache.put(this.key(hash, top, format, name), cloud);
+            }
+        }
+
+        if (format == CloudFormat.HTML) {
+            // words come from the text as they are: keep any markup inert
+            exchange.getResponseHeaders().set("Content-Security-Policy",
+                    "default-src 'none'; style-src http: https:");
+        }
+        send(exchange, 200, format.contentType(), cloud);
+    }
+
+    /**
+     * Count the words of an uploaded text as it is read, and hash it.
+     *
+     * @param body
+     *            the request body
+     * @param words
+     *            the table to count into
+     * @return the SHA-256 of the body, in hex, as
+     *         {@link TagcloudCache#contentHash}
+     * @throws IOException
+     *             if the body cannot be read
+     */
+    private String countUpload(InputStream body, CaseVariantTable words)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+        try (BufferedReader textInput = new BufferedReader(
+                new InputStreamReader(new DigestInputStream(body, digest),
+                        this.options.charset()),
+                BUFFER_SIZE)) {
+            TagcloudGenerator.countWordFromInput(textInput,
+                    this.options.separators(), this.options.stopWords(),
+                    words);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Look up a cloud in the cache.
+     *
+     * @param hash
+     *            the hash of the text
+     * @param top
+     *            N
+     * @param format
+     *            the format
+     * @param name
+     *            the name of the text
+     * @return the cloud, or null if it is not cached
+     * @throws IOException
+     *             if the disk tier of the cache cannot be read
+     */
+    private byte[] cached(String hash, int top, CloudFormat format,
+            String name) throws IOException {
+        byte[] result = null;
+        TagcloudCache cache = this.options.cache();
+        if (cache != null) {
+            result = cache.get(this.key(hash, top, format, name));
+        }
+        return result;
+    }
+
+    /**
+     * Reports the cache key of a cloud.
+     *
+     * @param hash
+     *            the hash of the text
+     * @param top
+     *            N
+     * @param format
+     *            the format
+     * @param name
+     *            the name of the text
+     * @return the key
+     */
+    private String key(String hash, int top, CloudFormat format,
+            String name) {
+        return TagcloudCache.key(hash, this.options.settings(), top,
+                format.formatName() + "/UTF-8", name);
+    }
+
+    /**
+     * Reports the file named by a PATH.
+     *
+     * @param path
+     *            the PATH, relative to the root
+     * @return the file
+     * @throws IOException
+     *             if there is no such file
+     * @throws SecurityException
+     *             if there is no root, or the file is not under it
+     */
+    private Path resolve(String path) throws IOException {
+        if (this.root == null) {
+            throw new SecurityException("No root directory");
+        }
+        Path result = this.root.resolve(path).toRealPath();
+        if (!result.startsWith(this.root) || !Files.isRegularFile(result)) {
+            throw new SecurityException("Not under the root: " + path);
+        }
+        return result;
+    }
+
+    /**
+     * Handle a stats request.
+     *
+     * @param exchange
+     *            the request and its response
+     * @throws IOException
+     *             if the response cannot be sent
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"requests\":").append(this.requests.get())
+                    .append(",\"rejected\":").append(this.rejected.get())
+                    .append(",\"errors\":").append(this.errors.get())
+                    .append(",\"inFlight\":").append(this.maxConcurrent
+                            - this.permits.availablePermits());
+            LatencyHistogram h = this.latencies;
+            json.append(",\"latencyMicros\":{\"count\":").append(h.count())
+                    .append(",\"p50\":").append(h.percentile(50))
+                    .append(",\"p90\":").append(h.percentile(90))
+                    .append(",\"p99\":").append(h.percentile(99))
+                    .append(",\"max\":").append(h.max())
+                    .append(",\"buckets\":[");
+            String comma = "";
+            for (int b = 0; b < h.bucketCount(); b++) {
+                if (h.count(b) > 0) {
+                    json.append(comma).append("{\"under\":")
+                            .append(h.upperBound(b)).append(",\"count\":")
+                            .append(h.count(b)).append('}');
+                    comma = ",";
+                }
+            }
+            json.append("]}");
+            TagcloudCache cache = this.options.cache();
+            if (cache != null) {
+                json.append(",\"cache\":{\"memoryHits\":")
+                        .append(cache.memoryHits()).append(",\"diskHits\":")
+                        .append(cache.diskHits()).append(",\"misses\":")
+                        .append(cache.misses()).append(",\"evictions\":")
+                        .append(cache.evictions())
+                        .append(",\"memoryBytes\":")
+                        .append(cache.memoryBytes()).append('}');
+            }
+            json.append("}\n");
+            send(exchange, 200, "application/json",
+                    json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Send a response.
+     *
+     * @param exchange
+     *            the request and its response
+     * @param status
+     *            the status
+     * @param type
+     *            the content type
+     * @param body
+     *            the body
+     * @throws IOException
+     *             if the response cannot be sent
+     */
+    private static void send(HttpExchange exchange, int status, String type,
+            byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.getResponseHeaders().set("X-Content-Type-Options",
+                "nosniff");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Send a plain text response.
+     *
+     * @param exchange
+     *            the request and its response
+     * @param status
+     *            the status
+     * @param message
+     *            the text
+     * @throws IOException
+     *             if the response cannot be sent
+     */
+    private static void sendText(HttpExchange exchange, int status,
+            String message) throws IOException {
+        send(exchange, status, "text/plain; charset=UTF-8",
+                (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parse a query string.
+     *
+     * @param rawQuery
+     *            the query string, still URL-encoded, or null
+     * @return the parameters
+     */
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> result = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    result.put(
+                            URLDecoder.decode(parameter.substring(0, equals),
+                                    StandardCharsets.UTF_8),
+                            URLDecoder.decode(parameter.substring(equals + 1),
+                                    StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parse N.
+     *
+     * @param value
+     *            the value of the parameter
+     * @return N
+     * @throws IllegalArgumentException
+     *             if the value is not a number from 1 to {@link #MAX_TOP}
+     */
+    private static int number(String value) {
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            result = 0;
+        }
+        if (result <= 0 || result > MAX_TOP) {
+            throw new IllegalArgumentException("Bad n: " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Create the executor handling the requests: one virtual thread per
+     * request if the JVM has them, otherwise a pool of platform threads that
+     * grows as needed, so a request over the limit is still answered at once.
+     *
+     * @return the executor
+     */
+    private static ExecutorService newExecutor() {
+        ExecutorService result;
+        try {
+            result = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException
+                | UnsupportedOperationException e) {
+            result = Executors.newCachedThreadPool();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,235 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the N words with the highest count out of a stream of words, using a
+ * bounded heap whose root is the lowest-ranked word kept. Selecting from V
+ * words takes O(V log N) time and O(N) space.
+ *
+ * <p>
+ * Words rank by decreasing count, then alphabetically ignoring case; words
+ * that still tie rank in the order they were offered. Offering an entry of a
+ * {@link WordCounts} only creates a {@link WordCount} when its count can
+ * place it among the words kept.
+ *
+ * @author Lucas Wu
+ */
+public final class TopWords {
+
+    /**
+     * count order.
+     */
+    private static class CountOrder implements Comparator<WordCount> {
+
+        @Override
+        public int compare(WordCount word1, WordCount word2) {
+            int result = Integer.compare(word2.getCount(), word1.getCount());
+            if (result == 0) {
+                result = word1.getFoldedWord()
+                        .compareTo(word2.getFoldedWord());
+            }
+
+            return result;
+        }
+
+    }
+
+    /**
+     * Order in which the words are ranked.
+     */
+    private static final Comparator<WordCount> ORDER = new CountOrder();
+
+    /**
+     * Heap of the words kept; the lowest-ranked word is at index 0.
+     */
+    private final WordCount[] heap;
+
+    /**
+     * Order in which each word of the heap was offered.
+     */
+    private final long[] sequence;
+
+    /**
+     * Number of words kept.
+     */
+    private int size;
+
+    /**
+     * Number of words offered so far.
+     */
+    private long offered;
+
+    /**
+     * Constructor.
+     *
+     * @param n
+     *            the number of words to keep
+     * @requires n >= 0
+     */
+    public TopWords(int n) {
+        assert n >= 0 : "Violation of: n >= 0";
+        this.heap = new WordCount[n];
+        this.sequence = new long[n];
+    }
+
+    /**
+     * Select the N highest-ranked words of {@code counts}.
+     *
+     * @param counts
+     *            the counted words
+     * @param n
+     *            the number of words to keep
+     * @return the selected words, in no particular order
+     * @requires n >= 0
+     */
+    public static List<WordCount> select(WordCounts counts, int n) {
+        assert counts != null : "Violation of: counts is not null";
+        TopWords top = new TopWords(Math.min(n, counts.size()));
+        for (int i = 0; i < counts.size(); i++) {
+            top.offer(counts, i);
+        }
+        return top.toList();
+    }
+
+    /**
+     * Offer the word at {@code index} of {@code counts}.
+     *
+     * @param counts
+     *            the counted words
+     * @param index
+     *            index of the word to offer
+     * @requires 0 <= index < counts.size()
+     */
+    public void offer(WordCounts counts, int index) {
+        assert counts != null : "Violation of: counts is not null";
+        if (this.size < this.heap.length
+                || counts.count(index) >= this.heap[0].getCount()) {
+            this.offer(new WordCount(counts.word(index), counts.count(index),
+                    counts.error(index)));
+        } else {
+            this.offered++;
+        }
+    }
+
+    /**
+     * Offer a word.
+     *
+     * @param word
+     *            the word to offer
+     */
+    public void offer(WordCount word) {
+        assert word != null : "Violation of: word is not null";
+        long order = this.offered;
+        this.offered++;
+        if (this.size < this.heap.length) {
+            this.heap[this.size] = word;
+            this.sequence[this.size] = order;
+            this.size++;
+            this.siftUp(this.size - 1);
+        } else if (this.size > 0 && ORDER.compare(word, this.heap[0]) < 0) {
+            this.heap[0] = word;
+            this.sequence[0] = order;
+            this.siftDown(0);
+        }
+    }
+
+    /**
+     * Reports the number of words kept.
+     *
+     * @return the number of words kept
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Reports the words kept.
+     *
+     * @return the words kept, in no particular order
+     */
+    public List<WordCount> toList() {
+        List<WordCount> result = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            result.add(this.heap[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether the word at heap index {@code i} ranks below the one
+     * at heap index {@code j}.
+     *
+     * @param i
+     *            heap index of the first word
+     * @param j
+     *            heap index of the second word
+     * @return true if word {@code i} ranks lower
+     */
+    private boolean lower(int i, int j) {
+        int result = ORDER.compare(this.heap[i], this.heap[j]);
+        if (result == 0) {
+            result = Long.compare(this.sequence[i], this.sequence[j]);
+        }
+        return result > 0;
+    }
+
+    /**
+     * Move the word at heap index {@code i} up until its parent ranks lower.
+     *
+     * @param i
+     *            heap index of the word
+     */
+    private void siftUp(int i) {
+        int child = i;
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (!this.lower(child, parent)) {
+                break;
+            }
+            this.swap(child, parent);
+            child = parent;
+        }
+    }
+
+    /**
+     * Move the word at heap index {@code i} down until its children rank
+     * higher.
+     *
+     * @param i
+     *            heap index of the word
+     */
+    private void siftDown(int i) {
+        int parent = i;
+        int child = 2 * parent + 1;
+        while (child < this.size) {
+            if (child + 1 < this.size && this.lower(child + 1, child)) {
+                child++;
+            }
+            if (!this.lower(child, parent)) {
+                break;
+            }
+            this.swap(child, parent);
+            parent = child;
+            child = 2 * parent + 1;
+        }
+    }
+
+    /**
+     * Swap two words of the heap.
+     *
+     * @param i
+     *            heap index of the first word
+     * @param j
+     *            heap index of the second word
+     */
+    private void swap(int i, int j) {
+        WordCount word = this.heap[i];
+        this.heap[i] = this.heap[j];
+        this.heap[j] = word;
+        long order = this.sequence[i];
+        this.sequence[i] = this.sequence[j];
+        this.sequence[j] = order;
+    }
+
+}
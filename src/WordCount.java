@@ -0,0 +1,106 @@
+/**
+ * A word and the number of times it appears, with by how much that count may
+ * be too high when it is approximate. The lower-case form of the word used
+ * for sorting is computed once, when the WordCount is created, so comparing
+ * two WordCounts does not create any Strings.
+ *
+ * @author Lucas Wu
+ */
+public final class WordCount {
+
+    /**
+     * The word.
+     */
+    private final String word;
+
+    /**
+     * The word in lower case.
+     */
+    private final String foldedWord;
+
+    /**
+     * Number of times the word appears.
+     */
+    private final int count;
+
+    /**
+     * Most by which the count exceeds the true count.
+     */
+    private final int error;
+
+    /**
+     * Constructor of an exact count.
+     *
+     * @param word
+     *            the word
+     * @param count
+     *            number of times the word appears
+     */
+    public WordCount(String word, int count) {
+        this(word, count, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param word
+     *            the word
+     * @param count
+     *            number of times the word appears, or an estimate of it
+     * @param error
+     *            most by which {@code count} exceeds the true count
+     * @requires 0 <= error <= count
+     */
+    public WordCount(String word, int count, int error) {
+        assert word != null : "Violation of: word is not null";
+        assert 0 <= error
+                && error <= count : "Violation of: 0 <= error <= count";
+        this.word = word;
+        this.foldedWord = word.toLowerCase();
+        this.count = count;
+        this.error = error;
+    }
+
+    /**
+     * Reports the word.
+     *
+     * @return the word
+     */
+    public String getWord() {
+        return this.word;
+    }
+
+    /**
+     * Reports the word in lower case, the key words are sorted by.
+     *
+     * @return the word in lower case
+     */
+    public String getFoldedWord() {
+        return this.foldedWord;
+    }
+
+    /**
+     * Reports the count.
+     *
+     * @return number of times the word appears
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Reports by how much the count may exceed the true count: 0 when it is
+     * exact.
+     *
+     * @return most by which the count is too high
+     */
+    public int getError() {
+        return this.error;
+    }
+
+    @Override
+    public String toString() {
+        return this.word + "=" + this.count;
+    }
+
+}
@@ -0,0 +1,417 @@
+import java.util.Arrays;
+
+/**
+ * Counting table keyed by char sequences, with {@code int} counts.
+ *
+ * <p>
+ * Entries are stored in parallel primitive arrays in the order their words
+ * were first added, so an entry's index never changes. The chars of all words
+ * live in one shared pool. Lookup uses open addressing with linear probing
+ * over an array of entry indexes, so counting a token is a single probe
+ * sequence with no boxing, and a String is only created when a word is read
+ * back with {@link #word(int)}.
+ *
+ * @author Lucas Wu
+ */
+public final class WordCountTable implements CountTable {
+
+    /**
+     * Initial number of entries.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Initial number of chars in the pool.
+     */
+    private static final int INITIAL_POOL = 8192;
+
+    /**
+     * Marks an unused bucket.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * Chars of all words, back to back.
+     */
+    private char[] pool;
+
+    /**
+     * Number of chars used in the pool.
+     */
+    private int poolSize;
+
+    /**
+     * Offset in the pool of each entry's word.
+     */
+    private int[] offsets;
+
+    /**
+     * Length of each entry's word.
+     */
+    private int[] lengths;
+
+    /**
+     * Hash of each entry's word.
+     */
+    private int[] hashes;
+
+    /**
+     * Count of each entry.
+     */
+    private int[] counts;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Hash buckets holding entry indexes, or {@link #EMPTY}.
+     */
+    private int[] buckets;
+
+    /**
+     * Constructor.
+     */
+    public WordCountTable() {
+        this.pool = new char[INITIAL_POOL];
+        this.offsets = new int[INITIAL_CAPACITY];
+        this.lengths = new int[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.counts = new int[INITIAL_CAPACITY];
+        this.buckets = newBuckets(2 * INITIAL_CAPACITY);
+    }
+
+    /**
+     * Add one to the count of the word {@code text[start, end)}, inserting it
+     * if it is new.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @return the index of the word's entry
+     * @requires 0 <= start < end <= |text|
+     */
+    public int add(char[] text, int start, int end) {
+        return this.add(text, start, end, 1);
+    }
+
+    /**
+     * Add {@code amount} to the count of the word {@code text[start, end)},
+     * inserting it if it is new.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @param amount
+     *            the amount to add
+     * @return the index of the word's entry
+     * @requires 0 <= start < end <= |text|
+     */
+    @Override
+    public int add(char[] text, int start, int end, int amount) {
+        assert text != null : "Violation of: text is not null";
+        assert 0 <= start && start < end
+                && end <= text.length : "Violation of: valid word";
+        int hash = hash(text, start, end);
+        int mask = this.buckets.length - 1;
+        int bucket = mix(hash) & mask;
+        int index = this.buckets[bucket];
+        while (index != EMPTY) {
+            if (this.hashes[index] == hash
+                    && this.matches(index, text, start, end)) {
+                this.counts[index] += amount;
+                return index;
+            }
+            bucket = (bucket + 1) & mask;
+            index = this.buckets[bucket];
+        }
+
+        index = this.insert(text, start, end, hash, amount);
+        this.buckets[bucket] = index;
+        if (2 * this.size > this.buckets.length) {
+            this.rehash(2 * this.buckets.length);
+        }
+        return index;
+    }
+
+    /**
+     * Add {@code amount} to the count of the entry at {@code index}.
+     *
+     * @param index
+     *            index of the entry
+     * @param amount
+     *            the amount to add
+     * @requires 0 <= index < size()
+     */
+    @Override
+    public void increment(int index, int amount) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        this.counts[index] += amount;
+    }
+
+    /**
+     * Add every entry of {@code other} to this table, in {@code other}'s
+     * order.
+     *
+     * @param other
+     *            the table to add
+     */
+    public void addAll(WordCountTable other) {
+        assert other != null : "Violation of: other is not null";
+        for (int i = 0; i < other.size; i++) {
+            int start = other.offsets[i];
+            this.add(other.pool, start, start + other.lengths[i],
+                    other.counts[i]);
+        }
+    }
+
+    /**
+     * Reports the index of the given word.
+     *
+     * @param word
+     *            the word to find
+     * @return the index of the word's entry, or -1 if it is not in the table
+     */
+    public int find(CharSequence word) {
+        assert word != null : "Violation of: word is not null";
+        int hash = 0;
+        for (int i = 0; i < word.length(); i++) {
+            hash = 31 * hash + word.charAt(i);
+        }
+        int mask = this.buckets.length - 1;
+        int bucket = mix(hash) & mask;
+        int index = this.buckets[bucket];
+        while (index != EMPTY) {
+            if (this.hashes[index] == hash
+                    && this.lengths[index] == word.length()) {
+                int offset = this.offsets[index];
+                int i = 0;
+                while (i < word.length()
+                        && this.pool[offset + i] == word.charAt(i)) {
+                    i++;
+                }
+                if (i == word.length()) {
+                    return index;
+                }
+            }
+            bucket = (bucket + 1) & mask;
+            index = this.buckets[bucket];
+        }
+        return -1;
+    }
+
+    /**
+     * Reports the count of the given word.
+     *
+     * @param word
+     *            the word to look up
+     * @return the count of the word, or 0 if it is not in the table
+     */
+    public int get(CharSequence word) {
+        int index = this.find(word);
+        int result = 0;
+        if (index >= 0) {
+            result = this.counts[index];
+        }
+        return result;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        this.size = 0;
+        this.poolSize = 0;
+        Arrays.fill(this.buckets, EMPTY);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public String word(int index) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        return new String(this.pool, this.offsets[index],
+                this.lengths[index]);
+    }
+
+    /**
+     * Reports the length of the word at the given index.
+     *
+     * @param index
+     *            index of the entry
+     * @return number of chars of the word
+     * @requires 0 <= index < size()
+     */
+    @Override
+    public int wordLength(int index) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        return this.lengths[index];
+    }
+
+    /**
+     * Copy the chars of the word at the given index into {@code dest},
+     * starting at {@code destBegin}.
+     *
+     * @param index
+     *            index of the entry
+     * @param dest
+     *            the destination buffer
+     * @param destBegin
+     *            offset in {@code dest} of the first char copied
+     * @requires 0 <= index < size() and destBegin + wordLength(index) <=
+     *           |dest|
+     */
+    @Override
+    public void getChars(int index, char[] dest, int destBegin) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        System.arraycopy(this.pool, this.offsets[index], dest, destBegin,
+                this.lengths[index]);
+    }
+
+    @Override
+    public int count(int index) {
+        assert 0 <= index && index < this.size : "Violation of: valid index";
+        return this.counts[index];
+    }
+
+    /**
+     * Hash of {@code text[start, end)}, equal to the hashCode of the
+     * corresponding String.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char
+     * @param end
+     *            offset after the last char
+     * @return the hash
+     */
+    private static int hash(char[] text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Spread the high bits of a hash into the low bits used for buckets.
+     *
+     * @param hash
+     *            the hash
+     * @return the mixed hash
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Make an array of empty buckets.
+     *
+     * @param length
+     *            number of buckets, a power of 2
+     * @return the buckets
+     */
+    private static int[] newBuckets(int length) {
+        int[] result = new int[length];
+        Arrays.fill(result, EMPTY);
+        return result;
+    }
+
+    /**
+     * Reports whether the entry's word equals {@code text[start, end)}.
+     *
+     * @param index
+     *            index of the entry
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char
+     * @param end
+     *            offset after the last char
+     * @return true if the words are equal
+     */
+    private boolean matches(int index, char[] text, int start, int end) {
+        int length = end - start;
+        if (this.lengths[index] != length) {
+            return false;
+        }
+        int offset = this.offsets[index];
+        for (int i = 0; i < length; i++) {
+            if (this.pool[offset + i] != text[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Append a new entry, growing the arrays if needed.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char
+     * @param end
+     *            offset after the last char
+     * @param hash
+     *            hash of the word
+     * @param amount
+     *            initial count
+     * @return the index of the new entry
+     */
+    private int insert(char[] text, int start, int end, int hash,
+            int amount) {
+        int length = end - start;
+        if (this.poolSize + length > this.pool.length) {
+            this.pool = Arrays.copyOf(this.pool,
+                    Math.max(2 * this.pool.length, this.poolSize + length));
+        }
+        if (this.size == this.counts.length) {
+            int capacity = 2 * this.counts.length;
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+            this.counts = Arrays.copyOf(this.counts, capacity);
+        }
+        System.arraycopy(text, start, this.pool, this.poolSize, length);
+        int index = this.size;
+        this.offsets[index] = this.poolSize;
+        this.lengths[index] = length;
+        this.hashes[index] = hash;
+        this.counts[index] = amount;
+        this.poolSize += length;
+        this.size++;
+        return index;
+    }
+
+    /**
+     * Rebuild the buckets with a new length.
+     *
+     * @param length
+     *            the new number of buckets, a power of 2
+     */
+    private void rehash(int length) {
+        this.buckets = newBuckets(length);
+        int mask = length - 1;
+        for (int index = 0; index < this.size; index++) {
+            int bucket = mix(this.hashes[index]) & mask;
+            while (this.buckets[bucket] != EMPTY) {
+                bucket = (bucket + 1) & mask;
+            }
+            this.buckets[bucket] = index;
+        }
+    }
+
+}
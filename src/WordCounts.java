@@ -0,0 +1,50 @@
+/**
+ * Read access to a set of counted words, indexed from 0 to {@code size() - 1}.
+ * This is what the sorting and tag cloud code needs from a counting
+ * structure, so counts can be read without boxing.
+ *
+ * @author Lucas Wu
+ */
+public interface WordCounts {
+
+    /**
+     * Reports the number of distinct words.
+     *
+     * @return number of words
+     */
+    int size();
+
+    /**
+     * Reports the word at the given index.
+     *
+     * @param index
+     *            index of the word
+     * @return the word
+     * @requires 0 <= index < size()
+     */
+    String word(int index);
+
+    /**
+     * Reports the count of the word at the given index.
+     *
+     * @param index
+     *            index of the word
+     * @return the number of times the word appears
+     * @requires 0 <= index < size()
+     */
+    int count(int index);
+
+    /**
+     * Reports by how much the count of the word at the given index may
+     * exceed its true count: 0 for an exact count.
+     *
+     * @param index
+     *            index of the word
+     * @return the error of the count
+     * @requires 0 <= index < size()
+     */
+    default int error(int index) {
+        return 0;
+    }
+
+}
@@ -0,0 +1,497 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Word counts of a source file saved on disk, so that a later run can make a
+ * cloud of it without reading and tokenizing the source again.
+ *
+ * <p>
+ * An index holds every group of capitalizations of a {@link CaseVariantTable}
+ * with its total count and the capitalization shown, every capitalization
+ * with its own count, the settings the source was counted with, and a
+ * fingerprint of the source: its size, its modification time and the CRC-32C
+ * of its content. An index is memory-mapped and read in place: it is a
+ * {@link WordCounts}, so {@link TagcloudGenerator#sortAndResize} reads it
+ * directly, creating a String only for the words it keeps.
+ *
+ * <p>
+ * Layout (big-endian): a header of magic, version, source size, source
+ * modification time, source CRC-32C, CRC-32C of the rest of the index,
+ * group count, capitalization count, pool length and settings length; then
+ * the settings chars; one record per group (count, offset and length of the
+ * capitalization shown); one record per capitalization (group, count,
+ * offset, length); and the chars of all capitalizations. Offsets count
+ * chars from the start of the pool. An index whose lengths do not add up
+ * to its size, or whose CRC-32C does not match, is damaged: it is not
+ * read, and the source is counted again.
+ *
+ * @author Lucas Wu
+ */
+public final class WordIndex implements WordCounts, AutoCloseable {
+
+    /**
+     * First int of an index file, "TCIX".
+     */
+    private static final int MAGIC = 0x54434958;
+
+    /**
+     * Version of the layout.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Bytes of the header.
+     */
+    private static final int HEADER_BYTES = 48;
+
+    /**
+     * Bytes of a group record.
+     */
+    private static final int GROUP_BYTES = 12;
+
+    /**
+     * Bytes of a capitalization record.
+     */
+    private static final int VARIANT_BYTES = 16;
+
+    /**
+     * Bytes of a char.
+     */
+    private static final int CHAR_BYTES = 2;
+
+    /**
+     * Bytes of the source hashed at a time.
+     */
+    private static final int HASH_WINDOW = 1 << 30;
+
+    /**
+     * Size, modification time and CRC-32C of a source, taken before it is
+     * counted: if the source changes while it is counted, the index then
+     * holds the fingerprint of the old content and is found stale.
+     */
+    public static final class Fingerprint {
+
+        /**
+         * Size of the source.
+         */
+        private final long size;
+
+        /**
+         * Modification time of the source.
+         */
+        private final long modified;
+
+        /**
+         * CRC-32C of the content of the source.
+         */
+        private final int crc;
+
+        /**
+         * Constructor.
+         *
+         * @param size
+         *            size of the source
+         * @param modified
+         *            modification time of the source
+         * @param crc
+         *            CRC-32C of the content of the source
+         */
+        private Fingerprint(long size, long modified, int crc) {
+            this.size = size;
+            this.modified = modified;
+            this.crc = crc;
+        }
+
+    }
+
+    /**
+     * The mapped index.
+     */
+    private MappedByteBuffer index;
+
+    /**
+     * Number of groups.
+     */
+    private final int groups;
+
+    /**
+     * Number of capitalizations.
+     */
+    private final int variants;
+
+    /**
+     * Position of the first group record.
+     */
+    private final int groupStart;
+
+    /**
+     * Position of the first capitalization record.
+     */
+    private final int variantStart;
+
+    /**
+     * Position of the char pool.
+     */
+    private final int poolStart;
+
+    /**
+     * Constructor.
+     *
+     * @param index
+     *            the mapped index, already checked
+     */
+    private WordIndex(MappedByteBuffer index) {
+        this.index = index;
+        this.groups = index.getInt(32);
+        this.variants = index.getInt(36);
+        this.groupStart = HEADER_BYTES + CHAR_BYTES * index.getInt(44);
+        this.variantStart = this.groupStart + GROUP_BYTES * this.groups;
+        this.poolStart = this.variantStart + VARIANT_BYTES * this.variants;
+    }
+
+    /**
+     * Open the index of a source, if it is up to date: it exists, it was
+     * counted with the same settings, and the source has the same size,
+     * modification time and content as when it was counted.
+     *
+     * @param indexFile
+     *            the index file
+     * @param source
+     *            the source file
+     * @param settings
+     *            the settings the source is counted with
+     * @return the index, or null if it is missing, stale or damaged
+     * @throws IOException
+     *             if the source cannot be read
+     */
+    public static WordIndex open(Path indexFile, Path source, String settings)
+            throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(indexFile,
+                StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES
+                    || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        WordIndex result = null;
+        try {
+            if (mapped.getInt(0) == MAGIC && mapped.getInt(4) == VERSION
+                    && mapped.getLong(8) == Files.size(source)
+                    && mapped.getLong(16) == modified(source)
+                    && isComplete(mapped)
+                    && settings.equals(readSettings(mapped))
+                    && mapped.getInt(28) == bodyCrc(mapped)
+                    && mapped.getInt(24) == crc(source)) {
+                result = new WordIndex(mapped);
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            result = null;
+        }
+        if (result == null) {
+            DirectMemory.free(mapped);
+        }
+        return result;
+    }
+
+    /**
+     * Take the fingerprint of a source, before counting it.
+     *
+     * @param source
+     *            the source file
+     * @return its fingerprint
+     * @throws IOException
+     *             if the source cannot be read
+     */
+    public static Fingerprint fingerprint(Path source) throws IOException {
+        long size = Files.size(source);
+        long modified = modified(source);
+        return new Fingerprint(size, modified, crc(source));
+    }
+
+    /**
+     * Save the counts of a source. The index is written to a temporary file
+     * and then moved over {@code indexFile}, so a reader never sees a
+     * partial index.
+     *
+     * @param indexFile
+     *            the index file
+     * @param source
+     *            the fingerprint of the source, taken before it was counted
+     * @param settings
+     *            the settings the source was counted with
+     * @param words
+     *            the counts of the source
+     * @throws IOException
+     *             if the index cannot be written
+     */
+    public static void write(Path indexFile, Fingerprint source,
+            String settings, CaseVariantTable words) throws IOException {
+        int variants = words.variantCount();
+        long pool = 0;
+        for (int v = 0; v < variants; v++) {
+            pool += words.variantWord(v).length();
+        }
+        int[] offsets = new int[variants];
+
+        Path parent = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent,
+                indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(source.size);
+                out.writeLong(source.modified);
+                out.writeInt(source.crc);
+                out.writeInt(0); // CRC-32C of the rest, once written
+                out.writeInt(words.size());
+                out.writeInt(variants);
+                out.writeInt((int) Math.min(pool, Integer.MAX_VALUE));
+                out.writeInt(settings.length());
+                out.writeChars(settings);
+
+                int offset = 0;
+                for (int v = 0; v < variants; v++) {
+                    offsets[v] = offset;
+                    offset += words.variantWord(v).length();
+                }
+                for (int g = 0; g < words.size(); g++) {
+                    int shown = words.shownVariant(g);
+                    out.writeInt(words.count(g));
+                    out.writeInt(offsets[shown]);
+                    out.writeInt(words.variantWord(shown).length());
+                }
+                for (int v = 0; v < variants; v++) {
+                    out.writeInt(words.groupOf(v));
+                    out.writeInt(words.variantCount(v));
+                    out.writeInt(offsets[v]);
+                    out.writeInt(words.variantWord(v).length());
+                }
+                for (int v = 0; v < variants; v++) {
+                    out.writeChars(words.variantWord(v));
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0,
+                        channel.size());
+                int crc = bodyCrc(mapped);
+                DirectMemory.free(mapped);
+                channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, crc),
+                        28);
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.groups;
+    }
+
+    @Override
+    public String word(int index) {
+        int at = this.groupStart + GROUP_BYTES * index;
+        return this.chars(this.index.getInt(at + 4), this.index.getInt(at + 8));
+    }
+
+    @Override
+    public int count(int index) {
+        return this.index.getInt(this.groupStart + GROUP_BYTES * index);
+    }
+
+    /**
+     * Reports the number of capitalizations.
+     *
+     * @return number of distinct exact words
+     */
+    public int variantCount() {
+        return this.variants;
+    }
+
+    /**
+     * Reports the capitalization at the given index.
+     *
+     * @param variant
+     *            index of the capitalization
+     * @return the capitalization
+     * @requires 0 <= variant < variantCount()
+     */
+    public String variantWord(int variant) {
+        int at = this.variantStart + VARIANT_BYTES * variant;
+        return this.chars(this.index.getInt(at + 8),
+                this.index.getInt(at + 12));
+    }
+
+    /**
+     * Reports the count of the capitalization at the given index.
+     *
+     * @param variant
+     *            index of the capitalization
+     * @return the number of times the capitalization appears
+     * @requires 0 <= variant < variantCount()
+     */
+    public int variantCount(int variant) {
+        return this.index.getInt(this.variantStart + VARIANT_BYTES * variant
+                + 4);
+    }
+
+    /**
+     * Reports the group of the capitalization at the given index.
+     *
+     * @param variant
+     *            index of the capitalization
+     * @return index of its group
+     * @requires 0 <= variant < variantCount()
+     */
+    public int groupOf(int variant) {
+        return this.index.getInt(this.variantStart + VARIANT_BYTES * variant);
+    }
+
+    /**
+     * Unmap the index. It must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        DirectMemory.free(this.index);
+        this.index = null;
+    }
+
+    /**
+     * Reports the chars of the pool at the given offset.
+     *
+     * @param offset
+     *            offset in chars from the start of the pool
+     * @param length
+     *            number of chars
+     * @return the chars, as a String
+     */
+    private String chars(int offset, int length) {
+        char[] chars = new char[length];
+        int at = this.poolStart + CHAR_BYTES * offset;
+        for (int i = 0; i < length; i++) {
+            chars[i] = this.index.getChar(at + CHAR_BYTES * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Reads the settings of a mapped index.
+     *
+     * @param mapped
+     *            the mapped index
+     * @return the settings
+     * @requires isComplete(mapped)
+     */
+    private static String readSettings(MappedByteBuffer mapped) {
+        char[] chars = new char[mapped.getInt(44)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = mapped.getChar(HEADER_BYTES + CHAR_BYTES * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Reports whether a mapped index is as long as its header says. Since
+     * no length in the header is negative and they add up to the length of
+     * the file, each section lies within the file.
+     *
+     * @param mapped
+     *            the mapped index
+     * @return true if no length is negative and no section is cut off
+     */
+    private static boolean isComplete(MappedByteBuffer mapped) {
+        int settings = mapped.getInt(44);
+        int groups = mapped.getInt(32);
+        int variants = mapped.getInt(36);
+        int pool = mapped.getInt(40);
+        boolean result = settings >= 0 && groups >= 0 && variants >= 0
+                && pool >= 0;
+        if (result) {
+            long length = HEADER_BYTES + (long) CHAR_BYTES * settings
+                    + (long) GROUP_BYTES * groups
+                    + (long) VARIANT_BYTES * variants
+                    + (long) CHAR_BYTES * pool;
+            result = length == mapped.capacity();
+        }
+        return result;
+    }
+
+    /**
+     * Reports the CRC-32C of a mapped index past its header.
+     *
+     * @param mapped
+     *            the mapped index
+     * @return the CRC-32C
+     */
+    private static int bodyCrc(MappedByteBuffer mapped) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer body = mapped.duplicate();
+        body.position(HEADER_BYTES);
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reports the modification time of a file.
+     *
+     * @param file
+     *            the file
+     * @return milliseconds since the epoch
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static long modified(Path file) throws IOException {
+        return Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Reports the CRC-32C of the content of a file.
+     *
+     * @param file
+     *            the file
+     * @return the CRC-32C
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static int crc(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(size - position, HASH_WINDOW);
+                MappedByteBuffer bytes = channel.map(MapMode.READ_ONLY,
+                        position, length);
+                crc.update(bytes);
+                DirectMemory.free(bytes);
+                position += length;
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+}
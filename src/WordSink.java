@@ -0,0 +1,24 @@
+/**
+ * Receives the words of a text as they are scanned. The counting methods of
+ * {@link TagcloudGenerator} feed any sink, so exact tables and bounded
+ * summaries are filled by the same scanning code.
+ *
+ * @author Lucas Wu
+ */
+public interface WordSink {
+
+    /**
+     * Add one occurrence of the word {@code text[start, end)}. The buffer is
+     * reused by the caller, so the word must be copied if it is kept.
+     *
+     * @param text
+     *            buffer holding the word
+     * @param start
+     *            offset of the first char of the word
+     * @param end
+     *            offset after the last char of the word
+     * @requires 0 <= start < end <= |text|
+     */
+    void add(char[] text, int start, int end);
+
+}
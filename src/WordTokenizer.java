@@ -0,0 +1,160 @@
+/**
+ * Index-based tokenizer that splits a character buffer into words and runs of
+ * consecutive separators. Tokens are reported as {@code [start, end)} offsets
+ * into the caller's buffer, so no characters are copied and no String is
+ * created while scanning.
+ *
+ * <p>
+ * A tokenizer is reusable: call {@link #reset(char[], int, int)} with a new
+ * buffer region and then {@link #next()} until it returns false.
+ *
+ * @author Lucas Wu
+ */
+public final class WordTokenizer {
+
+    /**
+     * Characters that separate words.
+     */
+    private final SeparatorSet separators;
+
+    /**
+     * Buffer being scanned.
+     */
+    private char[] text;
+
+    /**
+     * End (exclusive) of the region being scanned.
+     */
+    private int limit;
+
+    /**
+     * Start of the current token.
+     */
+    private int start;
+
+    /**
+     * End (exclusive) of the current token.
+     */
+    private int end;
+
+    /**
+     * Whether the current token is a word (as opposed to separators).
+     */
+    private boolean word;
+
+    /**
+     * Constructor.
+     *
+     * @param separators
+     *            the characters that separate words
+     */
+    public WordTokenizer(SeparatorSet separators) {
+        assert separators != null : "Violation of: separators is not null";
+        this.separators = separators;
+        this.text = new char[0];
+    }
+
+    /**
+     * Start scanning {@code text[offset, limit)}.
+     *
+     * @param text
+     *            the buffer to scan
+     * @param offset
+     *            the first position to scan
+     * @param limit
+     *            the end (exclusive) of the region to scan
+     * @requires 0 <= offset <= limit <= |text|
+     */
+    public void reset(char[] text, int offset, int limit) {
+        assert text != null : "Violation of: text is not null";
+        assert 0 <= offset && offset <= limit
+                && limit <= text.length : "Violation of: valid region";
+        this.text = text;
+        this.limit = limit;
+        this.start = offset;
+        this.end = offset;
+        this.word = false;
+    }
+
+    /**
+     * Advance to the next word or run of separators.
+     *
+     * @return false if the region has been fully scanned
+     */
+    public boolean next() {
+        if (this.end >= this.limit) {
+            return false;
+        }
+        this.start = this.end;
+        this.word = !this.isSeparatorAt(this.start);
+        int i = this.start + this.charCountAt(this.start);
+        while (i < this.limit && this.isSeparatorAt(i) != this.word) {
+            i += this.charCountAt(i);
+        }
+        this.end = i;
+        return true;
+    }
+
+    /**
+     * Reports the start of the current token.
+     *
+     * @return the offset of the first char of the current token
+     */
+    public int start() {
+        return this.start;
+    }
+
+    /**
+     * Reports the end of the current token.
+     *
+     * @return the offset after the last char of the current token
+     */
+    public int end() {
+        return this.end;
+    }
+
+    /**
+     * Reports whether the current token is a word.
+     *
+     * @return true if the current token is a word, false if it is a run of
+     *         separators
+     */
+    public boolean isWord() {
+        return this.word;
+    }
+
+    /**
+     * Check if the char, or surrogate pair, at {@code i} is a separator.
+     *
+     * @param i
+     *            offset of the char to be checked
+     * @return if the char at {@code i} is a separator
+     */
+    private boolean isSeparatorAt(int i) {
+        boolean result;
+        if (Character.isHighSurrogate(this.text[i])) {
+            int codePoint = Character.codePointAt(this.text, i, this.limit);
+            result = this.separators.isSeparator(codePoint);
+        } else {
+            result = this.separators.isSeparator(this.text[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Reports the number of chars of the code point at {@code i}.
+     *
+     * @param i
+     *            offset of the code point
+     * @return 2 for a complete surrogate pair, otherwise 1
+     */
+    private int charCountAt(int i) {
+        int result = 1;
+        if (Character.isHighSurrogate(this.text[i]) && i + 1 < this.limit
+                && Character.isLowSurrogate(this.text[i + 1])) {
+            result = 2;
+        }
+        return result;
+    }
+
+}
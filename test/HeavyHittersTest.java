@@ -0,0 +1,203 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@link HeavyHitters}: on the bundled corpora, every
+ * approximate count is within its error of the exact count of the word, and
+ * the errors reach the selected words.
+ *
+ * @author Lucas Wu
+ */
+public final class HeavyHittersTest {
+
+    /**
+     * The bundled corpora.
+     */
+    private static final String[] CORPORA = { "data/alice.txt",
+        "data/importance.txt", "data/tomsawyer.txt", "data/doriangray.txt",
+        "data/lesmiz.txt" };
+
+    /**
+     * Number of words selected.
+     */
+    private static final int TOP = 100;
+
+    /**
+     * Capacities tried, as multiples of {@link #TOP}.
+     */
+    private static final int[] FACTORS = { 1, 2, 4 };
+
+    /**
+     * Lower-case a word as {@link CaseVariantTable} groups it.
+     *
+     * @param word
+     *            the word
+     * @return the word in lower case
+     */
+    private static String fold(String word) {
+        StringBuilder result = new StringBuilder();
+        word.codePoints().map(Character::toLowerCase)
+                .forEach(result::appendCodePoint);
+        return result.toString();
+    }
+
+    /**
+     * Count a file exactly.
+     *
+     * @param file
+     *            the file
+     * @return the count of each word, by its lower-case form
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static Map<String, Integer> exact(Path file) throws IOException {
+        CaseVariantTable words = new CaseVariantTable();
+        TagcloudGenerator.countWordFromFile(file, StandardCharsets.UTF_8,
+                words);
+        Map<String, Integer> result = new HashMap<>();
+        for (int i = 0; i < words.size(); i++) {
+            result.put(fold(words.word(i)), words.count(i));
+        }
+        return result;
+    }
+
+    /**
+     * Count a file in a summary.
+     *
+     * @param file
+     *            the file
+     * @param capacity
+     *            the capacity of the summary
+     * @return the summary
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static HeavyHitters approximate(Path file, int capacity)
+            throws IOException {
+        HeavyHitters words = new HeavyHitters(capacity);
+        TagcloudGenerator.countWordFromFile(file, StandardCharsets.UTF_8,
+                SeparatorSet.DEFAULT, StopWords.DEFAULT, words);
+        return words;
+    }
+
+    /**
+     * Every monitored count is at least the exact count, and at most its
+     * error above it; every error is within the bound; and the summary has
+     * seen every word.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testCountsWithinErrors() throws IOException {
+        for (String corpus : CORPORA) {
+            Path file = Paths.get(corpus);
+            Map<String, Integer> exact = exact(file);
+            long total = 0;
+            for (int count : exact.values()) {
+                total += count;
+            }
+            for (int factor : FACTORS) {
+                HeavyHitters words = approximate(file, TOP * factor);
+                assertEquals(corpus, total, words.total());
+                assertEquals(total / (TOP * factor), words.errorBound());
+                for (int i = 0; i < words.size(); i++) {
+                    String word = words.word(i);
+                    int truth = exact.get(fold(word));
+                    assertTrue(word, truth <= words.count(i));
+                    assertTrue(word,
+                            words.count(i) - words.error(i) <= truth);
+                    assertTrue(word, words.error(i) <= words.errorBound());
+                }
+            }
+        }
+    }
+
+    /**
+     * Every word occurring more often than the error bound is monitored.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testFrequentWordsMonitored() throws IOException {
+        for (String corpus : CORPORA) {
+            Path file = Paths.get(corpus);
+            Map<String, Integer> exact = exact(file);
+            for (int factor : FACTORS) {
+                HeavyHitters words = approximate(file, TOP * factor);
+                Map<String, Integer> monitored = new HashMap<>();
+                for (int i = 0; i < words.size(); i++) {
+                    monitored.put(fold(words.word(i)), i);
+                }
+                for (Map.Entry<String, Integer> entry : exact.entrySet()) {
+                    if (entry.getValue() > words.errorBound()) {
+                        assertTrue(entry.getKey(),
+                                monitored.containsKey(entry.getKey()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The selected words carry the error of their count, and so bracket
+     * their exact count.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testErrorsSelected() throws IOException {
+        for (String corpus : CORPORA) {
+            Path file = Paths.get(corpus);
+            Map<String, Integer> exact = exact(file);
+            HeavyHitters words = approximate(file, TOP * 2);
+            Map<String, Integer> errors = new HashMap<>();
+            for (int i = 0; i < words.size(); i++) {
+                errors.put(words.word(i), words.error(i));
+            }
+            List<WordCount> sorted = TagcloudGenerator.sortAndResize(words,
+                    TOP);
+            assertEquals(TOP, sorted.size());
+            for (WordCount entry : sorted) {
+                int truth = exact.get(fold(entry.getWord()));
+                assertEquals(entry.getWord(),
+                        (int) errors.get(entry.getWord()), entry.getError());
+                assertTrue(entry.getWord(), truth <= entry.getCount());
+                assertTrue(entry.getWord(),
+                        entry.getCount() - entry.getError() <= truth);
+            }
+        }
+    }
+
+    /**
+     * A summary as large as the vocabulary counts exactly.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testExactWhenLargeEnough() throws IOException {
+        Path file = Paths.get("data/importance.txt");
+        Map<String, Integer> exact = exact(file);
+        HeavyHitters words = approximate(file, exact.size());
+        assertEquals(exact.size(), words.size());
+        for (int i = 0; i < words.size(); i++) {
+            assertEquals(0, words.error(i));
+            assertEquals((int) exact.get(fold(words.word(i))),
+                    words.count(i));
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@link SpillingCounter}: however often it spills,
+ * it selects the same words, capitalizations and counts as counting the
+ * whole text in one {@link CaseVariantTable}.
+ *
+ * @author Lucas Wu
+ */
+public final class SpillingCounterTest {
+
+    /**
+     * The bundled corpora.
+     */
+    private static final String[] CORPORA = { "data/alice.txt",
+        "data/importance.txt", "data/tomsawyer.txt", "data/doriangray.txt",
+        "data/lesmiz.txt" };
+
+    /**
+     * Number of words selected.
+     */
+    private static final int TOP = 100;
+
+    /**
+     * Count a file exactly and select its top words.
+     *
+     * @param file
+     *            the file
+     * @param n
+     *            the number of words to keep
+     * @return the top words, in alphabetical order
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static List<WordCount> exact(Path file, int n)
+            throws IOException {
+        CaseVariantTable words = new CaseVariantTable();
+        TagcloudGenerator.countWordFromFile(file, StandardCharsets.UTF_8,
+                words);
+        return TagcloudGenerator.sortAndResize(words, n);
+    }
+
+    /**
+     * Count a file in a SpillingCounter and select its top words, checking
+     * that the counter spilled as expected and left no file behind.
+     *
+     * @param file
+     *            the file
+     * @param n
+     *            the number of words to keep
+     * @param budget
+     *            capitalizations held in memory
+     * @param partitions
+     *            partitions of each spill
+     * @param tables
+     *            makes the in-memory tables
+     * @param minSpills
+     *            least number of spills expected
+     * @return the top words, in alphabetical order
+     * @throws IOException
+     *             if the file cannot be read or the runs written
+     */
+    private static List<WordCount> spilled(Path file, int n, int budget,
+            int partitions, Supplier<CaseVariantTable> tables, int minSpills)
+            throws IOException {
+        Path root = Files.createTempDirectory("spill-test");
+        List<WordCount> result;
+        try {
+            try (SpillingCounter counter = new SpillingCounter(root, budget,
+                    partitions, tables)) {
+                TagcloudGenerator.countWordFromFile(file,
+                        StandardCharsets.UTF_8, SeparatorSet.DEFAULT,
+                        StopWords.DEFAULT, counter);
+                result = TagcloudGenerator.sortAndResize(counter.top(n), n);
+                assertTrue("spills: " + counter.spillCount(),
+                        counter.spillCount() >= minSpills);
+            }
+            try (Stream<Path> left = Files.walk(root)) {
+                assertEquals(1, left.count());
+            }
+        } finally {
+            Files.deleteIfExists(root);
+        }
+        return result;
+    }
+
+    /**
+     * A budget larger than the vocabulary never spills.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testUnderBudget() throws IOException {
+        Path file = Paths.get("data/alice.txt");
+        List<WordCount> words = spilled(file, TOP, Integer.MAX_VALUE, 4,
+                CaseVariantTable::new, 0);
+        assertEquals(exact(file, TOP).toString(), words.toString());
+    }
+
+    /**
+     * Every corpus gives the exact top words when it is spilled a few
+     * times.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testSpilledMatchesExact() throws IOException {
+        for (String corpus : CORPORA) {
+            Path file = Paths.get(corpus);
+            List<WordCount> words = spilled(file, TOP, 2000, 16,
+                    CaseVariantTable::new, 1);
+            assertEquals(corpus, exact(file, TOP).toString(),
+                    words.toString());
+        }
+    }
+
+    /**
+     * A partition with more runs than {@link SpillingCounter#FAN_IN} is
+     * merged in passes, to the same words.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testMergedInPasses() throws IOException {
+        Path file = Paths.get("data/lesmiz.txt");
+        List<WordCount> words = spilled(file, TOP, 100, 2,
+                CaseVariantTable::new, SpillingCounter.FAN_IN + 1);
+        assertEquals(exact(file, TOP).toString(), words.toString());
+    }
+
+    /**
+     * Tables kept off the heap spill to the same words.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testOffHeap() throws IOException {
+        Path file = Paths.get("data/tomsawyer.txt");
+        List<WordCount> words = spilled(file, TOP, 1000, 16,
+                CaseVariantTable::offHeap, 1);
+        assertEquals(exact(file, TOP).toString(), words.toString());
+    }
+
+    /**
+     * The top word alone, and a top larger than a single partition, are
+     * selected across all partitions.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testTopSizes() throws IOException {
+        Path file = Paths.get("data/importance.txt");
+        for (int n : new int[] { 1, 1000 }) {
+            List<WordCount> words = spilled(file, n, 500, 8,
+                    CaseVariantTable::new, 1);
+            assertEquals(exact(file, n).toString(), words.toString());
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@link SvgLayout}: on the top words of the bundled
+ * corpora, a layout on several threads places every word where the
+ * sequential layout does.
+ *
+ * @author Lucas Wu
+ */
+public final class SvgLayoutTest {
+
+    /**
+     * The bundled corpora.
+     */
+    private static final String[] CORPORA = { "data/alice.txt",
+        "data/importance.txt", "data/tomsawyer.txt", "data/doriangray.txt",
+        "data/lesmiz.txt" };
+
+    /**
+     * Seeds tried.
+     */
+    private static final long[] SEEDS = { 0, 1, 12345 };
+
+    /**
+     * Parallelisms compared with the sequential layout.
+     */
+    private static final int[] PARALLELISMS = { 2, 3, 4, 8 };
+
+    /**
+     * Count a corpus and select its top words.
+     *
+     * @param corpus
+     *            the corpus
+     * @param n
+     *            the number of words to keep
+     * @return the top words, in alphabetical order
+     * @throws IOException
+     *             if the corpus cannot be read
+     */
+    private static List<WordCount> top(String corpus, int n)
+            throws IOException {
+        CaseVariantTable words = new CaseVariantTable();
+        TagcloudGenerator.countWordFromFile(Paths.get(corpus),
+                StandardCharsets.UTF_8, words);
+        return TagcloudGenerator.sortAndResize(words, n);
+    }
+
+    /**
+     * Describe a layout, checking that every word placed is on the canvas.
+     *
+     * @param words
+     *            the words laid out
+     * @param placement
+     *            where they are placed
+     * @return the size of the canvas, then the font size and the place of
+     *         each word
+     */
+    private static String describe(List<WordCount> words,
+            SvgLayout.Placement placement) {
+        StringBuilder result = new StringBuilder();
+        result.append(placement.width()).append('x')
+                .append(placement.height());
+        int placed = 0;
+        for (int i = 0; i < words.size(); i++) {
+            result.append(' ').append(words.get(i).getWord()).append(':')
+                    .append(placement.fontSize(i));
+            if (placement.placed(i)) {
+                placed++;
+                assertTrue(0 <= placement.x(i)
+                        && placement.x(i) <= placement.width());
+                assertTrue(0 <= placement.y(i)
+                        && placement.y(i) <= placement.height());
+                result.append('@').append(placement.x(i)).append(',')
+                        .append(placement.y(i));
+            }
+        }
+        assertTrue(placed > 0);
+        return result.toString();
+    }
+
+    /**
+     * The top 100 words of every corpus are laid out the same on any
+     * number of threads.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        for (String corpus : CORPORA) {
+            List<WordCount> words = top(corpus, 100);
+            for (long seed : SEEDS) {
+                String expected = describe(words,
+                        new SvgLayout(seed).layout(words));
+                for (int parallelism : PARALLELISMS) {
+                    assertEquals(corpus + " seed " + seed + " on "
+                            + parallelism + " threads", expected,
+                            describe(words, new SvgLayout(seed, parallelism)
+                                    .layout(words)));
+                }
+            }
+        }
+    }
+
+    /**
+     * A cloud of many words, laid out in many rounds, is the same on any
+     * number of threads.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testManyWords() throws IOException {
+        List<WordCount> words = top("data/lesmiz.txt", 1000);
+        String expected = describe(words, new SvgLayout(7).layout(words));
+        for (int parallelism : PARALLELISMS) {
+            assertEquals(expected, describe(words,
+                    new SvgLayout(7, parallelism).layout(words)));
+        }
+    }
+
+    /**
+     * The same words and seed always give the same layout, and the words
+     * are not changed.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testRepeatable() throws IOException {
+        List<WordCount> words = top("data/alice.txt", 100);
+        String before = words.toString();
+        SvgLayout layout = new SvgLayout(3, 4);
+        assertEquals(describe(words, layout.layout(words)),
+                describe(words, layout.layout(words)));
+        assertEquals(before, words.toString());
+    }
+
+    /**
+     * Two or fewer words, including a single one, are laid out the same
+     * on any number of threads.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read
+     */
+    @Test
+    public void testFewWords() throws IOException {
+        for (int n = 1; n <= 2; n++) {
+            List<WordCount> words = top("data/importance.txt", n);
+            assertEquals(describe(words, new SvgLayout(0).layout(words)),
+                    describe(words, new SvgLayout(0, 8).layout(words)));
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@link WordIndex}: an index reads back the counts it
+ * was written from, and is refused once its source or its own bytes have
+ * changed.
+ *
+ * @author Lucas Wu
+ */
+public final class WordIndexTest {
+
+    /**
+     * The bundled corpora.
+     */
+    private static final String[] CORPORA = { "data/alice.txt",
+        "data/importance.txt", "data/tomsawyer.txt", "data/doriangray.txt",
+        "data/lesmiz.txt" };
+
+    /**
+     * Settings the sources are counted with.
+     */
+    private static final String SETTINGS = "UTF-8 default default";
+
+    /**
+     * Offset of the group count in the header.
+     */
+    private static final int GROUPS_AT = 32;
+
+    /**
+     * Count a file exactly.
+     *
+     * @param file
+     *            the file
+     * @return its counts
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static CaseVariantTable count(Path file) throws IOException {
+        CaseVariantTable words = new CaseVariantTable();
+        TagcloudGenerator.countWordFromFile(file, StandardCharsets.UTF_8,
+                words);
+        return words;
+    }
+
+    /**
+     * Copy a corpus into a new temporary directory, and write its index
+     * there.
+     *
+     * @param corpus
+     *            the corpus
+     * @return the directory, holding {@code source} and {@code index}
+     * @throws IOException
+     *             if the files cannot be written
+     */
+    private static Path indexed(String corpus) throws IOException {
+        Path dir = Files.createTempDirectory("index-test");
+        Path source = dir.resolve("source");
+        Files.copy(Paths.get(corpus), source);
+        WordIndex.Fingerprint fingerprint = WordIndex.fingerprint(source);
+        WordIndex.write(dir.resolve("index"), fingerprint, SETTINGS,
+                count(source));
+        return dir;
+    }
+
+    /**
+     * Delete a directory made by {@link #indexed}.
+     *
+     * @param dir
+     *            the directory
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    private static void delete(Path dir) throws IOException {
+        Files.deleteIfExists(dir.resolve("source"));
+        Files.deleteIfExists(dir.resolve("index"));
+        Files.delete(dir);
+    }
+
+    /**
+     * Open the index of a directory made by {@link #indexed}, expecting it
+     * to be refused.
+     *
+     * @param dir
+     *            the directory
+     * @throws IOException
+     *             if the source cannot be read
+     */
+    private static void assertRefused(Path dir) throws IOException {
+        assertNull(WordIndex.open(dir.resolve("index"), dir.resolve("source"),
+                SETTINGS));
+    }
+
+    /**
+     * Overwrite an int of a file.
+     *
+     * @param file
+     *            the file
+     * @param position
+     *            where the int is
+     * @param value
+     *            the new value
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private static void putInt(Path file, long position, int value)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value),
+                    position);
+        }
+    }
+
+    /**
+     * Every corpus reads back, group by group and capitalization by
+     * capitalization, as it was counted.
+     *
+     * @throws IOException
+     *             if a corpus cannot be read or its index written
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (String corpus : CORPORA) {
+            Path dir = indexed(corpus);
+            try {
+                CaseVariantTable words = count(dir.resolve("source"));
+                WordIndex index = WordIndex.open(dir.resolve("index"),
+                        dir.resolve("source"), SETTINGS);
+                assertNotNull(corpus, index);
+                try {
+                    assertEquals(corpus, words.size(), index.size());
+                    for (int i = 0; i < words.size(); i++) {
+                        assertEquals(words.word(i), index.word(i));
+                        assertEquals(words.count(i), index.count(i));
+                    }
+                    assertEquals(words.variantCount(), index.variantCount());
+                    for (int v = 0; v < words.variantCount(); v++) {
+                        assertEquals(words.variantCount(v),
+                                index.variantCount(v));
+                        assertEquals(words.groupOf(v), index.groupOf(v));
+                    }
+                    assertEquals(
+                            TagcloudGenerator.sortAndResize(words, 100)
+                                    .toString(),
+                            TagcloudGenerator.sortAndResize(index, 100)
+                                    .toString());
+                } finally {
+                    index.close();
+                }
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    /**
+     * An index is refused when it is missing or was counted with other
+     * settings.
+     *
+     * @throws IOException
+     *             if the corpus cannot be read or its index written
+     */
+    @Test
+    public void testMissingOrOtherSettings() throws IOException {
+        Path dir = indexed("data/alice.txt");
+        try {
+            assertNull(WordIndex.open(dir.resolve("none"),
+                    dir.resolve("source"), SETTINGS));
+            assertNull(WordIndex.open(dir.resolve("index"),
+                    dir.resolve("source"), SETTINGS + " approximate=2"));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * An index is stale once text is appended to its source.
+     *
+     * @throws IOException
+     *             if the corpus cannot be read or its index written
+     */
+    @Test
+    public void testSourceAppended() throws IOException {
+        Path dir = indexed("data/alice.txt");
+        try {
+            Files.write(dir.resolve("source"),
+                    " Alice".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+            assertRefused(dir);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * An index is stale once its source is touched.
+     *
+     * @throws IOException
+     *             if the corpus cannot be read or its index written
+     */
+    @Test
+    public void testSourceTouched() throws IOException {
+        Path dir = indexed("data/alice.txt");
+        try {
+            Path source = dir.resolve("source");
+            FileTime modified = Files.getLastModifiedTime(source);
+            Files.setLastModifiedTime(source,
+                    FileTime.fromMillis(modified.toMillis() + 1000));
+            assertRefused(dir);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * An index is stale once its source changes, even keeping its size and
+     * modification time.
+     *
+     * @throws IOException
+     *             if the corpus cannot be read or its index written
+     */
+    @Test
+    public void testSourceRewrittenInPlace() throws IOException {
+        Path dir = indexed("data/alice.txt");
+        try {
+            Path source = dir.resolve("source");
+            FileTime modified = Files.getLastModifiedTime(source);
+            putInt(source, Files.size(source) / 2, 0x41414141);
+            Files.setLastModifiedTime(source, modified);
+            assertRefused(dir);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * An index written from counts of a source that changed after its
+     * fingerprint was taken is stale.
+     *
+     * @throws IOException
+     *             if the corpus cannot be read or its index written
+     */
+    @Test
+    public void testSourceChangedWhileCounted() throws IOException {
+        Path dir = Files.createTempDirectory("index-test");
+        try {
+            Path source = dir.resolve("source");
+            Files.copy(Paths.get("data/alice.txt"), source);
+            WordIndex.Fingerprint fingerprint = WordIndex.fingerprint(source);
+            Files.write(source, " Alice".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+            WordIndex.write(dir.resolve("index"), fingerprint, SETTINGS,
+                    count(source));
+            assertRefused(dir);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * An index with a byte changed after its header, or with a wrong
+     * record count, is damaged, and refused.
+     *
+     * @throws IOException
+     *             if the corpus cannot be read or its index written
+     */
+    @Test
+    public void testDamaged() throws IOException {
+        Path dir = indexed("data/alice.txt");
+        try {
+            Path index = dir.resolve("index");
+            byte[] good = Files.readAllBytes(index);
+            for (int at : new int[] { 60, good.length / 2,
+                    good.length - 1 }) {
+                byte[] bad = good.clone();
+                bad[at] ^= 0x10;
+                Files.write(index, bad);
+                assertRefused(dir);
+            }
+            Files.write(index, good);
+            WordIndex intact = WordIndex.open(index, dir.resolve("source"),
+                    SETTINGS);
+            assertNotNull(intact);
+            intact.close();
+            putInt(index, GROUPS_AT, Integer.MAX_VALUE);
+            assertRefused(dir);
+            Files.write(index, Arrays.copyOf(good, good.length - 1));
+            assertRefused(dir);
+        } finally {
+            delete(dir);
+        }
+    }
+
+}